@@ -0,0 +1,122 @@
+package org.wargamer2010.signshop.bench;
+
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.permission.Permission;
+import org.bukkit.World;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.ServicePriority;
+import org.mockbukkit.mockbukkit.MockBukkit;
+import org.mockbukkit.mockbukkit.ServerMock;
+import org.mockbukkit.mockbukkit.entity.PlayerMock;
+import org.wargamer2010.signshop.SignShop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * SignShop enabled on a MockBukkit server, so benchmarks run offline without a Minecraft server.
+ *
+ * <p>A plugin called Vault is faked, with a {@link MemoryEconomy} and a {@link MemoryPermission}
+ * registered as its services. SignShop is loaded from its plugin.yml and enabled with metrics turned
+ * off, everything else keeps the defaults of config.yml.</p>
+ */
+public class BenchServer {
+    private static final String worldName = "world";
+
+    private final ServerMock server;
+    private final World world;
+    private final MemoryEconomy economy;
+    private final MemoryPermission permission;
+
+    private BenchServer(ServerMock server, World world, MemoryEconomy economy, MemoryPermission permission) {
+        this.server = server;
+        this.world = world;
+        this.economy = economy;
+        this.permission = permission;
+    }
+
+    /**
+     * Starts a server with SignShop enabled. Only one can run at a time.
+     */
+    public static BenchServer start() {
+        ServerMock server = MockBukkit.mock();
+        World world = server.addSimpleWorld(worldName);
+
+        Plugin vault = MockBukkit.createMockPlugin("Vault");
+        MemoryEconomy economy = new MemoryEconomy();
+        MemoryPermission permission = new MemoryPermission();
+        server.getServicesManager().register(Economy.class, economy, vault, ServicePriority.Normal);
+        server.getServicesManager().register(Permission.class, permission, vault, ServicePriority.Normal);
+
+        Plugin plugin = server.getPluginManager().loadPlugin(SignShop.class, readDescription(), new Object[0]);
+        writeConfig(plugin.getDataFolder());
+        server.getPluginManager().enablePlugin(plugin);
+        if (!plugin.isEnabled())
+            throw new IllegalStateException("SignShop could not be enabled, check the log");
+        return new BenchServer(server, world, economy, permission);
+    }
+
+    public void stop() {
+        MockBukkit.unmock();
+    }
+
+    public ServerMock getServer() {
+        return server;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public MemoryEconomy getEconomy() {
+        return economy;
+    }
+
+    public MemoryPermission getPermission() {
+        return permission;
+    }
+
+    /**
+     * Adds an online player with the given balance
+     */
+    public PlayerMock addPlayer(String name, double balance) {
+        PlayerMock player = server.addPlayer(name);
+        economy.setBalance(name, balance);
+        return player;
+    }
+
+    /**
+     * Runs the tasks scheduled for the next tick
+     */
+    public void tick() {
+        server.getScheduler().performOneTick();
+    }
+
+    private static PluginDescriptionFile readDescription() {
+        try (InputStream in = SignShop.class.getResourceAsStream("/plugin.yml")) {
+            if (in == null)
+                throw new IllegalStateException("plugin.yml is not on the classpath");
+            return new PluginDescriptionFile(in);
+        } catch (IOException | InvalidDescriptionException ex) {
+            throw new IllegalStateException("Could not read plugin.yml", ex);
+        }
+    }
+
+    private static void writeConfig(File dataFolder) {
+        if (!dataFolder.exists() && !dataFolder.mkdirs())
+            throw new IllegalStateException("Could not create " + dataFolder);
+        // SignShop fills in the rest from the config.yml in the jar
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("ConfigVersionDoNotTouch", 4);
+        config.set("MetricsEnabled", false);
+        try {
+            config.save(new File(dataFolder, "config.yml"));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not write config.yml", ex);
+        }
+    }
+}
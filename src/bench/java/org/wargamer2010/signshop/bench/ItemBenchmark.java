@@ -0,0 +1,128 @@
+package org.wargamer2010.signshop.bench;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import org.bukkit.inventory.ItemStack;
+import org.mockbukkit.mockbukkit.entity.PlayerMock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.configuration.SignShopConfig;
+import org.wargamer2010.signshop.data.serialization.ItemSerializer;
+import org.wargamer2010.signshop.player.VirtualInventory;
+import org.wargamer2010.signshop.util.ItemMessagePart;
+import org.wargamer2010.signshop.util.economyUtil;
+import org.wargamer2010.signshop.util.itemUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per-transaction work on the items of a shop, which does not depend on how many shops there are.
+ *
+ * <p>Run with {@code mvn -Pbench test-compile exec:exec@jmh}, see ARCHITECTURE.md.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemBenchmark {
+    private static final String message = "!player bought !items from !owner for !price at !world";
+    private static final String[] prices = { "$100", "1,250.50", "15.75", "$ 9999999" };
+
+    private BenchServer server;
+    private SignShopConfig config;
+    private ItemStack[] items;
+    private String[] serialized;
+    private VirtualInventory inventory;
+    private final Map<String, Object> messageParts = new HashMap<>();
+    private int nextPrice = 0;
+
+    @Setup
+    public void setUp() {
+        server = BenchServer.start();
+        config = SignShop.getInstance().getSignShopConfig();
+        ShopGenerator generator = new ShopGenerator(server, 1);
+        items = generator.randomItems(3);
+
+        serialized = new String[items.length];
+        for (int i = 0; i < items.length; i++)
+            serialized[i] = ItemSerializer.serialize(items[i]);
+
+        // Only the first item is in the inventory, so hasItems and variableAmount go through all of it
+        PlayerMock player = server.addPlayer("customer", 1000);
+        player.getInventory().addItem(generator.randomItems(18));
+        player.getInventory().addItem(items[0].clone());
+        inventory = new VirtualInventory(player.getInventory());
+
+        messageParts.put("!player", "customer");
+        messageParts.put("!owner", "owner0");
+        messageParts.put("!price", "$1,250.50");
+        messageParts.put("!world", "world");
+        messageParts.put("!items", ItemMessagePart.fromItems(items));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public double parsePrice() {
+        return economyUtil.parsePrice(prices[nextPrice++ & 3]);
+    }
+
+    @Benchmark
+    public String fillInBlanks() {
+        return config.fillInBlanks(message, messageParts);
+    }
+
+    @Benchmark
+    public BaseComponent fillInBlanksAsComponent() {
+        return config.fillInBlanksAsComponent(message, messageParts);
+    }
+
+    @Benchmark
+    public Map<ItemStack, Integer> stackToMap() {
+        return itemUtil.StackToMap(items);
+    }
+
+    @Benchmark
+    public void serialize(Blackhole blackhole) {
+        for (ItemStack item : items)
+            blackhole.consume(ItemSerializer.serialize(item));
+    }
+
+    @Benchmark
+    public void deserialize(Blackhole blackhole) {
+        for (String data : serialized)
+            blackhole.consume(ItemSerializer.deserialize(data));
+    }
+
+    @Benchmark
+    public boolean hasItems() {
+        return inventory.hasItems(items);
+    }
+
+    @Benchmark
+    public boolean canTakeItems() {
+        return inventory.canTakeItems(items);
+    }
+
+    @Benchmark
+    public Map<ItemStack[], Double> variableAmount() {
+        return inventory.variableAmount(items);
+    }
+}
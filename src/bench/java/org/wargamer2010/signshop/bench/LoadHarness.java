@@ -0,0 +1,288 @@
+package org.wargamer2010.signshop.bench;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.Event;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.PluginManager;
+import org.mockbukkit.mockbukkit.entity.PlayerMock;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.data.Storage;
+import org.wargamer2010.signshop.util.LatencyHistogram;
+import org.wargamer2010.signshop.util.PerfStats;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Replays simulated players against synthetic shops on a headless server, to size hardware and to
+ * compare releases under the same load.
+ *
+ * <p>{@link ShopGenerator#generateMixed} builds the shops from the seed, then every tick each of the
+ * given number of clicks is a {@link PlayerInteractEvent} on a random shop sign by a random customer,
+ * left clicks for confirmations and right clicks for transactions. About one click in a hundred is a
+ * {@link BlockBreakEvent} on a shop block instead, which SignShop has to refuse. The events go
+ * through Bukkit's plugin manager to the real SignShopPlayerListener and SignShopBlockListener, money
+ * moves through the {@link MemoryEconomy} and items through the chests. Every 200 ticks the shops
+ * that were used are restocked and the customers get their items back, outside the measurements.</p>
+ *
+ * <p>Allocation is counted on the main thread only, the work SignShop hands to its writer threads
+ * is not part of it.</p>
+ *
+ * <p>Run with {@code mvn -Pbench test-compile exec:exec@load}, see ARCHITECTURE.md.</p>
+ */
+public class LoadHarness {
+    private static final int ticksPerSecond = 20;
+    private static final int restockTicks = 200;
+    private static final int breakOneIn = 100;
+    private static final int leftClickPercent = 20;
+    private static final int memberPercent = 70;
+    private static final String[] operations = { "buy", "sell", "trade", "ibuy", "share", "restricted" };
+
+    private int shopCount = 10_000;
+    private int playerCount = 100;
+    private int clicksPerTick = 20;
+    private int seconds = 60;
+    private long seed = 1;
+    private boolean printStats = false;
+
+    private BenchServer server;
+    private ShopGenerator generator;
+    private Random random;
+    private List<Seller> shops;
+    private List<Seller> sellingShops;
+    private final List<PlayerMock> customers = new ArrayList<>();
+    private final List<ItemStack[]> customerItems = new ArrayList<>();
+
+    private final LatencyHistogram clickTimes = new LatencyHistogram();
+    private final LatencyHistogram breakTimes = new LatencyHistogram();
+    private final LatencyHistogram tickTimes = new LatencyHistogram();
+    private long errors = 0;
+    private long breaksAllowed = 0;
+
+    private LoadHarness() {
+
+    }
+
+    public static void main(String[] args) {
+        LoadHarness harness = new LoadHarness();
+        int exitCode = 0;
+        try {
+            harness.parse(args);
+            harness.run();
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: LoadHarness [--shops n] [--players n] [--clicks per tick] [--seconds n] [--seed n] [--stats]");
+            exitCode = 2;
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+            exitCode = 1;
+        } finally {
+            if (harness.server != null)
+                harness.server.stop();
+        }
+        // MockBukkit and SignShop leave non-daemon threads behind
+        System.exit(exitCode);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--stats")) {
+                printStats = true;
+                continue;
+            }
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("Missing value for " + arg);
+            String value = args[++i];
+            switch (arg) {
+                case "--shops" -> shopCount = parsePositive(arg, value);
+                case "--players" -> playerCount = parsePositive(arg, value);
+                case "--clicks" -> clicksPerTick = parsePositive(arg, value);
+                case "--seconds" -> seconds = parsePositive(arg, value);
+                case "--seed" -> seed = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0)
+                return number;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(option + " needs a number above 0, got " + value);
+    }
+
+    private void run() {
+        random = new Random(seed);
+        server = BenchServer.start();
+        generator = new ShopGenerator(server, seed);
+
+        long heapBefore = usedHeap();
+        shops = generator.generateMixed(shopCount);
+        long heapAfter = usedHeap();
+        sellingShops = new ArrayList<>();
+        for (Seller shop : shops) {
+            String operation = shop.getOperation();
+            if (operation.equals("sell") || operation.equals("trade"))
+                sellingShops.add(shop);
+        }
+        addCustomers();
+
+        PerfStats.reset();
+        List<Block> targets = new ArrayList<>();
+        for (Seller shop : shops) {
+            targets.add(shop.getSign());
+            targets.addAll(shop.getContainables());
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        PluginManager pluginManager = server.getServer().getPluginManager();
+        Set<Seller> touched = new HashSet<>();
+        Set<Integer> touchedCustomers = new HashSet<>();
+        int ticks = seconds * ticksPerSecond;
+        long clicks = 0;
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        for (int tick = 1; tick <= ticks; tick++) {
+            long tickStart = System.nanoTime();
+            for (int i = 0; i < clicksPerTick; i++) {
+                int customerIndex = random.nextInt(customers.size());
+                PlayerMock customer = customers.get(customerIndex);
+                touchedCustomers.add(customerIndex);
+                if (random.nextInt(breakOneIn) == 0) {
+                    BlockBreakEvent event = new BlockBreakEvent(targets.get(random.nextInt(targets.size())), customer);
+                    breakTimes.record(callEvent(pluginManager, event));
+                    if (!event.isCancelled())
+                        breaksAllowed++;
+                } else {
+                    Seller shop = shops.get(random.nextInt(shops.size()));
+                    touched.add(shop);
+                    Action action = (random.nextInt(100) < leftClickPercent ? Action.LEFT_CLICK_BLOCK : Action.RIGHT_CLICK_BLOCK);
+                    clickTimes.record(callEvent(pluginManager, new PlayerInteractEvent(customer, action, null, shop.getSign(), BlockFace.NORTH)));
+                }
+                clicks++;
+            }
+            server.tick();
+            tickTimes.record(System.nanoTime() - tickStart);
+
+            if (tick % restockTicks == 0) {
+                long pausedAt = System.nanoTime();
+                long allocatedPaused = threads.getThreadAllocatedBytes(threadId);
+                restock(touched, touchedCustomers);
+                started += System.nanoTime() - pausedAt;
+                allocatedBefore += threads.getThreadAllocatedBytes(threadId) - allocatedPaused;
+            }
+        }
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        long saveStart = System.nanoTime();
+        byte[] saved = Storage.get().toConfiguration().saveToString().getBytes(StandardCharsets.UTF_8);
+        long saveNanos = System.nanoTime() - saveStart;
+
+        long transactions = 0;
+        for (String operation : operations)
+            transactions += PerfStats.getCounter("transactions." + operation);
+
+        System.out.println("SignShop load: " + shopCount + " shops, " + playerCount + " players, "
+                + clicksPerTick + " clicks per tick for " + seconds + " s, seed " + seed);
+        System.out.println(String.format(Locale.ROOT, "  clicks: %d, transactions: %d (%.1f/s), errors: %d, breaks let through: %d",
+                clicks, transactions, transactions / elapsedSeconds, errors, breaksAllowed));
+        System.out.println("  interact listener: " + describe(clickTimes));
+        System.out.println("  break listener:    " + describe(breakTimes));
+        System.out.println("  tick:              " + describe(tickTimes));
+        System.out.println(String.format(Locale.ROOT, "  allocation: %.1f MB/s, %d bytes per click",
+                allocated / elapsedSeconds / (1024 * 1024), (clicks == 0 ? 0 : allocated / clicks)));
+        System.out.println(String.format(Locale.ROOT, "  save: %d bytes (%d per shop), built in %.1f ms",
+                saved.length, saved.length / shopCount, saveNanos / 1e6));
+        System.out.println(String.format(Locale.ROOT, "  memory: %d bytes per shop, chests and signs of the mock world included",
+                Math.max(0, heapAfter - heapBefore) / shopCount));
+        if (printStats) {
+            for (String line : PerfStats.getReport())
+                System.out.println("  " + line);
+        }
+    }
+
+    private void addCustomers() {
+        for (int i = 0; i < playerCount; i++) {
+            String name = "customer" + i;
+            PlayerMock customer = server.addPlayer(name, 1_000_000);
+            if (random.nextInt(100) < memberPercent)
+                server.getPermission().addGroup(name, ShopGenerator.restrictedGroup);
+
+            // Random stacks, and what a few of the Sell and Trade shops take, so some of them go through
+            List<ItemStack> items = new ArrayList<>(List.of(generator.randomItems(6)));
+            for (int j = 0; j < 3 && !sellingShops.isEmpty(); j++) {
+                Seller shop = sellingShops.get(random.nextInt(sellingShops.size()));
+                ItemStack[] taken = (shop.getOperation().equals("trade") ? shop.getCachedMiscItems("chest1") : shop.getItems());
+                if (taken == null)
+                    continue;
+                for (ItemStack item : taken)
+                    if (item != null)
+                        items.add(item.clone());
+            }
+            ItemStack[] inventory = items.toArray(new ItemStack[0]);
+            customers.add(customer);
+            customerItems.add(inventory);
+            fillInventory(customer, inventory);
+        }
+    }
+
+    private void restock(Set<Seller> touched, Set<Integer> touchedCustomers) {
+        for (Seller shop : touched)
+            generator.restock(shop);
+        touched.clear();
+        for (int index : touchedCustomers) {
+            PlayerMock customer = customers.get(index);
+            customer.getInventory().clear();
+            fillInventory(customer, customerItems.get(index));
+            server.getEconomy().setBalance(customer.getName(), 1_000_000);
+        }
+        touchedCustomers.clear();
+    }
+
+    private static void fillInventory(PlayerMock customer, ItemStack[] items) {
+        for (ItemStack item : items)
+            customer.getInventory().addItem(item.clone());
+    }
+
+    private long callEvent(PluginManager pluginManager, Event event) {
+        long start = System.nanoTime();
+        try {
+            pluginManager.callEvent(event);
+        } catch (RuntimeException ex) {
+            if (errors++ == 0) {
+                System.err.println("First error while handling " + event.getEventName() + ":");
+                ex.printStackTrace();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String describe(LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "%d calls, p50 %.3f ms, p99 %.3f ms, max %.3f ms", histogram.getCount(),
+                histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6, histogram.getMaxNanos() / 1e6);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,187 @@
+package org.wargamer2010.signshop.bench;
+
+import net.milkbowl.vault.economy.AbstractEconomy;
+import net.milkbowl.vault.economy.EconomyResponse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Vault economy that keeps the balances in memory, registered in place of a real economy plugin by {@link BenchServer}.
+ * Banks are not supported.
+ */
+public class MemoryEconomy extends AbstractEconomy {
+    private final Map<String, Double> balances = new ConcurrentHashMap<>();
+
+    public void setBalance(String name, double balance) {
+        balances.put(getKey(name), balance);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "Memory";
+    }
+
+    @Override
+    public boolean hasBankSupport() {
+        return false;
+    }
+
+    @Override
+    public int fractionalDigits() {
+        return 2;
+    }
+
+    @Override
+    public String format(double amount) {
+        return String.format(Locale.ROOT, "$%.2f", amount);
+    }
+
+    @Override
+    public String currencyNamePlural() {
+        return "dollars";
+    }
+
+    @Override
+    public String currencyNameSingular() {
+        return "dollar";
+    }
+
+    @Override
+    public boolean hasAccount(String playerName) {
+        return true;
+    }
+
+    @Override
+    public boolean hasAccount(String playerName, String worldName) {
+        return hasAccount(playerName);
+    }
+
+    @Override
+    public double getBalance(String playerName) {
+        return balances.getOrDefault(getKey(playerName), 0.0);
+    }
+
+    @Override
+    public double getBalance(String playerName, String world) {
+        return getBalance(playerName);
+    }
+
+    @Override
+    public boolean has(String playerName, double amount) {
+        return getBalance(playerName) >= amount;
+    }
+
+    @Override
+    public boolean has(String playerName, String worldName, double amount) {
+        return has(playerName, amount);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(String playerName, double amount) {
+        if (amount < 0)
+            return new EconomyResponse(0, getBalance(playerName), EconomyResponse.ResponseType.FAILURE, "Cannot withdraw negative funds");
+        String key = getKey(playerName);
+        double[] balance = new double[1];
+        boolean[] enough = new boolean[1];
+        balances.compute(key, (k, current) -> {
+            double value = (current == null ? 0 : current);
+            enough[0] = (value >= amount);
+            balance[0] = (enough[0] ? value - amount : value);
+            return balance[0];
+        });
+        if (!enough[0])
+            return new EconomyResponse(0, balance[0], EconomyResponse.ResponseType.FAILURE, "Insufficient funds");
+        return new EconomyResponse(amount, balance[0], EconomyResponse.ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(String playerName, String worldName, double amount) {
+        return withdrawPlayer(playerName, amount);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(String playerName, double amount) {
+        if (amount < 0)
+            return new EconomyResponse(0, getBalance(playerName), EconomyResponse.ResponseType.FAILURE, "Cannot deposit negative funds");
+        double balance = balances.merge(getKey(playerName), amount, Double::sum);
+        return new EconomyResponse(amount, balance, EconomyResponse.ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(String playerName, String worldName, double amount) {
+        return depositPlayer(playerName, amount);
+    }
+
+    @Override
+    public EconomyResponse createBank(String name, String player) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse deleteBank(String name) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankBalance(String name) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankHas(String name, double amount) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankWithdraw(String name, double amount) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankDeposit(String name, double amount) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse isBankOwner(String name, String playerName) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse isBankMember(String name, String playerName) {
+        return noBanks();
+    }
+
+    @Override
+    public List<String> getBanks() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean createPlayerAccount(String playerName) {
+        return true;
+    }
+
+    @Override
+    public boolean createPlayerAccount(String playerName, String worldName) {
+        return createPlayerAccount(playerName);
+    }
+
+    private static EconomyResponse noBanks() {
+        return new EconomyResponse(0, 0, EconomyResponse.ResponseType.NOT_IMPLEMENTED, "Banks are not supported");
+    }
+
+    private static String getKey(String playerName) {
+        // Offline players the server never saw have no name
+        return (playerName == null ? "" : playerName);
+    }
+}
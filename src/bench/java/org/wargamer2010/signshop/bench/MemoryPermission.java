@@ -0,0 +1,110 @@
+package org.wargamer2010.signshop.bench;
+
+import net.milkbowl.vault.permission.Permission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Vault permissions kept in memory, registered by {@link BenchServer}.
+ * Every player has every permission except the admin ones, and is in the groups given to {@link #addGroup}.
+ */
+public class MemoryPermission extends Permission {
+    private final Set<String> groups = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> playerGroups = new ConcurrentHashMap<>();
+
+    public void addGroup(String playerName, String group) {
+        groups.add(group);
+        playerGroups.computeIfAbsent(playerName, k -> ConcurrentHashMap.newKeySet()).add(group);
+    }
+
+    @Override
+    public String getName() {
+        return "Memory";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSuperPermsCompat() {
+        return false;
+    }
+
+    @Override
+    public boolean playerHas(String world, String player, String permission) {
+        String lower = permission.toLowerCase();
+        return !lower.startsWith("signshop.superadmin") && !lower.startsWith("signshop.admin");
+    }
+
+    @Override
+    public boolean playerAdd(String world, String player, String permission) {
+        return false;
+    }
+
+    @Override
+    public boolean playerRemove(String world, String player, String permission) {
+        return false;
+    }
+
+    @Override
+    public boolean groupHas(String world, String group, String permission) {
+        return false;
+    }
+
+    @Override
+    public boolean groupAdd(String world, String group, String permission) {
+        return false;
+    }
+
+    @Override
+    public boolean groupRemove(String world, String group, String permission) {
+        return false;
+    }
+
+    @Override
+    public boolean playerInGroup(String world, String player, String group) {
+        Set<String> inGroups = playerGroups.get(player);
+        return (inGroups != null && inGroups.contains(group));
+    }
+
+    @Override
+    public boolean playerAddGroup(String world, String player, String group) {
+        addGroup(player, group);
+        return true;
+    }
+
+    @Override
+    public boolean playerRemoveGroup(String world, String player, String group) {
+        Set<String> inGroups = playerGroups.get(player);
+        return (inGroups != null && inGroups.remove(group));
+    }
+
+    @Override
+    public String[] getPlayerGroups(String world, String player) {
+        Set<String> inGroups = playerGroups.get(player);
+        return (inGroups == null ? new String[0] : new ArrayList<>(inGroups).toArray(new String[0]));
+    }
+
+    @Override
+    public String getPrimaryGroup(String world, String player) {
+        String[] inGroups = getPlayerGroups(world, player);
+        return (inGroups.length == 0 ? null : inGroups[0]);
+    }
+
+    @Override
+    public String[] getGroups() {
+        List<String> all = new ArrayList<>(groups);
+        return all.toArray(new String[0]);
+    }
+
+    @Override
+    public boolean hasGroupSupport() {
+        return true;
+    }
+}
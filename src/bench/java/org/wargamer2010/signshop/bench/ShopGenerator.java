@@ -0,0 +1,259 @@
+package org.wargamer2010.signshop.bench;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Container;
+import org.bukkit.block.Sign;
+import org.bukkit.block.sign.Side;
+import org.bukkit.block.sign.SignSide;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.data.Storage;
+import org.wargamer2010.signshop.operations.SignShopArguments;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
+import org.wargamer2010.signshop.util.ChunkKey;
+import org.wargamer2010.signshop.util.itemUtil;
+import org.wargamer2010.signshop.util.signshopUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Builds synthetic shops from a seeded {@link Random}, so the same seed gives the same shops.
+ *
+ * <p>Shops are laid out on a grid, one every three blocks: a chest at y 64 holding the stock and a
+ * standing sign on top of it. Trade shops have a second chest next to the first one, for the items
+ * the customer hands in, and iBuy shops have no chest at all. Share and Restricted signs stand on
+ * their own and are linked to the shop generated before them. Everything is added to
+ * {@link Storage} the way sellers.yml is loaded, without saving. Every 50 shops share an owner, up
+ * to 500 owners, who are online players.</p>
+ */
+public class ShopGenerator {
+    private static final Material[] palette = {
+            Material.DIAMOND, Material.IRON_INGOT, Material.GOLD_INGOT, Material.COBBLESTONE, Material.OAK_LOG,
+            Material.BREAD, Material.COOKED_BEEF, Material.ARROW, Material.REDSTONE, Material.GLASS,
+            Material.WHITE_WOOL, Material.TORCH, Material.DIAMOND_SWORD, Material.IRON_PICKAXE, Material.BOOK
+    };
+    private static final int shopsPerOwner = 50;
+    private static final int maxOwners = 500;
+    private static final int spacing = 3;
+    private static final int chestY = 64;
+    private static final int stockCopies = 4;
+    /** Group written on Restricted signs */
+    public static final String restrictedGroup = "member";
+    private static final String[] mixedTypes = { "Buy", "Sell", "Trade", "iBuy", "Share", "Restricted" };
+    private static final int[] mixedWeights = { 30, 25, 15, 10, 10, 10 };
+
+    private final BenchServer server;
+    private final Random random;
+    private final List<PlayerIdentifier> owners = new ArrayList<>();
+    private final Set<ChunkKey> chunks = new HashSet<>();
+
+    public ShopGenerator(BenchServer server, long seed) {
+        this.server = server;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Adds the given number of Buy and Sell shops
+     *
+     * @param count Shops to add
+     * @return The added shops
+     */
+    public List<Seller> generate(int count) {
+        addOwners(count);
+        int side = (int) Math.ceil(Math.sqrt(count));
+        List<Seller> shops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int x = (i % side) * spacing;
+            int z = (i / side) * spacing;
+            String type = (random.nextInt(100) < 55 ? "Buy" : "Sell");
+            shops.add(addItemShop(type, x, z));
+        }
+        loadChunks();
+        return shops;
+    }
+
+    /**
+     * Adds the given number of Buy, Sell, Trade, iBuy, Share and Restricted signs, in roughly 30/25/15/10/10/10 proportions
+     *
+     * @param count Signs to add
+     * @return The added signs
+     */
+    public List<Seller> generateMixed(int count) {
+        addOwners(count);
+        int side = (int) Math.ceil(Math.sqrt(count));
+        List<Seller> shops = new ArrayList<>(count);
+        Seller lastShop = null;
+        for (int i = 0; i < count; i++) {
+            int x = (i % side) * spacing;
+            int z = (i / side) * spacing;
+            String type = pickMixedType();
+            Seller seller;
+            if ((type.equals("Share") || type.equals("Restricted")) && lastShop != null) {
+                seller = addLinkedSign(type, lastShop, x, z);
+            } else if (type.equals("Share") || type.equals("Restricted")) {
+                seller = addItemShop("Buy", x, z);
+                lastShop = seller;
+            } else {
+                seller = (type.equals("Trade") ? addTradeShop(x, z) : addItemShop(type, x, z));
+                lastShop = seller;
+            }
+            shops.add(seller);
+        }
+        loadChunks();
+        return shops;
+    }
+
+    /**
+     * Puts the chests of the shop back the way they were generated: full for what it hands out, empty for what it takes in
+     */
+    public void restock(Seller seller) {
+        List<Block> chests = seller.getContainables();
+        if (chests.isEmpty())
+            return;
+        String type = seller.getOperation();
+        if (type.equals("trade")) {
+            clearChest(chests.get(0));
+            clearChest(chests.get(1));
+            fillChest(chests.get(1), seller.getCachedMiscItems("chest2"), stockCopies);
+        } else {
+            clearChest(chests.get(0));
+            if (type.equals("buy"))
+                fillChest(chests.get(0), seller.getItems(), stockCopies);
+        }
+    }
+
+    /**
+     * @param count Number of stacks
+     * @return Random stacks, now and then with a name and lore so item meta is part of the work
+     */
+    public ItemStack[] randomItems(int count) {
+        ItemStack[] items = new ItemStack[count];
+        for (int i = 0; i < count; i++) {
+            Material material = palette[random.nextInt(palette.length)];
+            ItemStack item = new ItemStack(material, 1 + random.nextInt(material.getMaxStackSize()));
+            if (random.nextInt(10) == 0) {
+                ItemMeta meta = item.getItemMeta();
+                if (meta != null) {
+                    meta.setDisplayName("Shop item " + random.nextInt(1000));
+                    meta.setLore(List.of("Lot " + random.nextInt(100)));
+                    item.setItemMeta(meta);
+                }
+            }
+            items[i] = item;
+        }
+        return items;
+    }
+
+    private Seller addItemShop(String type, int x, int z) {
+        World world = server.getWorld();
+        ItemStack[] items = randomItems(1 + random.nextInt(3));
+        List<Block> containables = new ArrayList<>();
+        // Admin shops hand out items from nowhere
+        if (!type.equals("iBuy")) {
+            Block chest = world.getBlockAt(x, chestY, z);
+            chest.setType(Material.CHEST);
+            // Buy shops need stock, Sell shops need room
+            if (type.equals("Buy"))
+                fillChest(chest, items, stockCopies);
+            containables.add(chest);
+        }
+
+        Block sign = world.getBlockAt(x, chestY + 1, z);
+        writeSign(sign, "[" + type + "]", "", "", "$" + (1 + random.nextInt(500)));
+        return addSeller(sign, containables, items, new HashMap<>());
+    }
+
+    private Seller addTradeShop(int x, int z) {
+        World world = server.getWorld();
+        ItemStack[] taken = randomItems(1 + random.nextInt(2));
+        ItemStack[] given = randomItems(1 + random.nextInt(2));
+        Block takenChest = world.getBlockAt(x, chestY, z);
+        takenChest.setType(Material.CHEST);
+        Block givenChest = world.getBlockAt(x + 1, chestY, z);
+        givenChest.setType(Material.CHEST);
+        fillChest(givenChest, given, stockCopies);
+
+        Block sign = world.getBlockAt(x, chestY + 1, z);
+        writeSign(sign, "[Trade]", "", "", "");
+        Map<String, String> misc = new HashMap<>();
+        misc.put("chest1", signshopUtil.implode(itemUtil.convertItemStacksToString(taken), SignShopArguments.separator));
+        misc.put("chest2", signshopUtil.implode(itemUtil.convertItemStacksToString(given), SignShopArguments.separator));
+        List<Block> containables = new ArrayList<>();
+        containables.add(takenChest);
+        containables.add(givenChest);
+        return addSeller(sign, containables, given, misc);
+    }
+
+    private Seller addLinkedSign(String type, Seller shop, int x, int z) {
+        Block sign = server.getWorld().getBlockAt(x, chestY + 1, z);
+        if (type.equals("Share")) {
+            int first = 10 + random.nextInt(30);
+            writeSign(sign, "[Share]", "owner" + random.nextInt(owners.size()), "owner" + random.nextInt(owners.size()), first + "/" + (50 - first));
+        } else {
+            writeSign(sign, "[Restricted]", restrictedGroup, "", "");
+        }
+        shop.addMisc(type.equals("Share") ? "sharesigns" : "restrictedsigns", signshopUtil.convertLocationToString(sign.getLocation()));
+        return addSeller(sign, new ArrayList<>(), new ItemStack[0], new HashMap<>());
+    }
+
+    private Seller addSeller(Block sign, List<Block> containables, ItemStack[] items, Map<String, String> misc) {
+        PlayerIdentifier owner = owners.get(random.nextInt(owners.size()));
+        Storage.get().addSeller(owner, sign.getWorld().getName(), sign, containables, new ArrayList<>(), items, misc, false);
+        chunks.add(ChunkKey.of(sign));
+        return Storage.get().getSeller(sign.getLocation());
+    }
+
+    private String pickMixedType() {
+        int roll = random.nextInt(100);
+        for (int i = 0; i < mixedTypes.length; i++) {
+            if (roll < mixedWeights[i])
+                return mixedTypes[i];
+            roll -= mixedWeights[i];
+        }
+        return mixedTypes[0];
+    }
+
+    private void addOwners(int count) {
+        int wanted = Math.max(1, Math.min((count + shopsPerOwner - 1) / shopsPerOwner, maxOwners));
+        while (owners.size() < wanted)
+            owners.add(new PlayerIdentifier(server.addPlayer("owner" + owners.size(), 1_000_000_000).getUniqueId()));
+    }
+
+    private void loadChunks() {
+        for (ChunkKey chunk : chunks)
+            server.getWorld().loadChunk(chunk.getX(), chunk.getZ());
+    }
+
+    private static void fillChest(Block block, ItemStack[] items, int times) {
+        Container container = (Container) block.getState();
+        for (int i = 0; i < times; i++)
+            for (ItemStack item : items)
+                if (item != null)
+                    container.getInventory().addItem(item.clone());
+        container.update(true, false);
+    }
+
+    private static void clearChest(Block block) {
+        Container container = (Container) block.getState();
+        container.getInventory().clear();
+        container.update(true, false);
+    }
+
+    static void writeSign(Block block, String... lines) {
+        block.setType(Material.OAK_SIGN);
+        Sign sign = (Sign) block.getState();
+        SignSide front = sign.getSide(Side.FRONT);
+        for (int i = 0; i < lines.length; i++)
+            front.setLine(i, lines[i]);
+        sign.update(true, false);
+    }
+}
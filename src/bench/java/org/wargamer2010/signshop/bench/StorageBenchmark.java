@@ -0,0 +1,84 @@
+package org.wargamer2010.signshop.bench;
+
+import org.bukkit.block.Block;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.data.Storage;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the work that grows with the number of shops on the server, at 1k, 10k and 100k synthetic shops.
+ *
+ * <p>{@code Storage.Save()} is split in its two halves: building the configuration on the tick, and
+ * turning it into YAML on the writer thread.</p>
+ *
+ * <p>Run with {@code mvn -Pbench test-compile exec:exec@jmh}, see ARCHITECTURE.md.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    private static final int probes = 1024;
+
+    @Param({ "1000", "10000", "100000" })
+    public int shops;
+
+    private BenchServer server;
+    private Storage storage;
+    private FileConfiguration saved;
+    private final Block[] probeBlocks = new Block[probes];
+    private int nextProbe = 0;
+
+    @Setup
+    public void setUp() {
+        server = BenchServer.start();
+        List<Seller> generated = new ShopGenerator(server, 1).generate(shops);
+        storage = Storage.get();
+        saved = storage.toConfiguration();
+
+        // Chests of random shops, and every other probe a block next to one, which belongs to no shop
+        Random random = new Random(2);
+        for (int i = 0; i < probes; i++) {
+            Block chest = generated.get(random.nextInt(generated.size())).getContainables().get(0);
+            probeBlocks[i] = (i % 2 == 0 ? chest : chest.getRelative(1, 0, 0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public List<Seller> getShopsByBlock() {
+        return storage.getShopsByBlock(probeBlocks[nextProbe++ & (probes - 1)]);
+    }
+
+    @Benchmark
+    public FileConfiguration toConfiguration() {
+        return storage.toConfiguration();
+    }
+
+    @Benchmark
+    public String saveToString() {
+        return saved.saveToString();
+    }
+}
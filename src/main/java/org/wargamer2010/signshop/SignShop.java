@@ -7,25 +7,36 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.event.Event;
+import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.util.FileUtil;
 import org.jetbrains.annotations.NotNull;
+import org.wargamer2010.signshop.data.BooksDatabaseQueue;
+import org.wargamer2010.signshop.data.SSDatabase;
 import org.wargamer2010.signshop.data.SignShopBooks;
 import org.wargamer2010.signshop.data.SignShopItemMeta;
+import org.wargamer2010.signshop.data.TransactionHistory;
+import org.wargamer2010.signshop.data.TransactionLog;
 import org.wargamer2010.signshop.commands.*;
 import org.wargamer2010.signshop.configuration.ColorUtil;
 import org.wargamer2010.signshop.configuration.MetaFormats;
+import org.wargamer2010.signshop.configuration.PersistenceWriter;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.data.Storage;
 import org.wargamer2010.signshop.configuration.configUtil;
+import org.wargamer2010.signshop.events.SSEventDispatcher;
 import org.wargamer2010.signshop.listeners.*;
 import org.wargamer2010.signshop.listeners.sslisteners.*;
+import org.wargamer2010.signshop.money.DemandTracker;
 import org.wargamer2010.signshop.money.MoneyModifierManager;
 import org.wargamer2010.signshop.player.PlayerMetadata;
+import org.wargamer2010.signshop.player.SignShopPlayer;
 import org.wargamer2010.signshop.scheduling.SchedulerAdapter;
+import org.wargamer2010.signshop.scheduling.TickGovernor;
 import org.wargamer2010.signshop.timing.TimeManager;
+import org.wargamer2010.signshop.util.ChunkPrefetcher;
 import org.wargamer2010.signshop.util.DataConverter;
 import org.wargamer2010.signshop.util.SSTimeUtil;
 import org.wargamer2010.signshop.util.commandUtil;
@@ -34,10 +45,6 @@ import org.wargamer2010.signshop.worth.EssentialsWorthHandler;
 import org.wargamer2010.signshop.worth.WorthHandler;
 
 import java.io.File;
-import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.logging.*;
 
 /**
@@ -70,8 +77,8 @@ import java.util.logging.*;
  * controlled by {@code DebugClasses} config option.
  *
  * <p><b>Transaction Logging:</b></p>
- * When {@code TransactionLog: true}, all shop transactions are logged to Transaction.log with
- * customer, owner, operation, items, and price details via {@link #logTransaction}.
+ * When {@code TransactionLog: true}, all shop transactions are written as JSON lines to
+ * transactions/transactions.jsonl by {@link TransactionLog}, off the main thread, via {@link #logTransaction}.
  *
  * @see SignShopConfig
  * @see Storage
@@ -83,7 +90,6 @@ public class SignShop extends JavaPlugin {
     private static final int CONFIG_VERSION_DO_NOT_TOUCH = 4;
     public static final int DATA_VERSION = 4;
     private static final Logger logger = Logger.getLogger("Minecraft");
-    private static final Logger transactionlogger = Logger.getLogger("SignShop_Transactions");
     public static WorthHandler worthHandler;
     private static SignShop instance;
     private SignShopConfig signShopConfig;
@@ -137,12 +143,22 @@ public class SignShop extends JavaPlugin {
             logger.log(level, ("[SignShop] " + message));
     }
 
+    /**
+     * Logs a transaction with only the names and items as text, nothing is added to the transaction history
+     *
+     * @deprecated Use {@link #logTransaction(SignShopPlayer, Seller, String, ItemStack[], String, double)}
+     */
+    @Deprecated
     public void logTransaction(String customer, String owner, String Operation, String items, String Price) {
-        if (getSignShopConfig().getTransactionLog()) {
-            String fixedItems = (items.isEmpty() ? "none" : items);
-            String message = ("Customer: " + customer + ", Owner: " + owner + ", Operation: " + Operation + ", Items: " + fixedItems + ", Price: " + Price);
-            transactionlogger.log(Level.INFO, message);
-        }
+        if (getSignShopConfig().getTransactionLog())
+            TransactionLog.log(customer, owner, Operation, items, Price);
+    }
+
+    public void logTransaction(SignShopPlayer customer, Seller seller, String operation, ItemStack[] items, String description, double price) {
+        if (getSignShopConfig().getTransactionLog())
+            TransactionLog.log(customer, seller, operation, items, description, price);
+        if (getSignShopConfig().getTransactionHistory())
+            TransactionHistory.record(customer, seller, operation, items, price);
     }
 
     public static String getLogPrefix() {
@@ -155,7 +171,7 @@ public class SignShop extends JavaPlugin {
     }
 
     public static void scheduleEvent(Event event) {
-        SignShop.getInstance().getServer().getPluginManager().callEvent(event);
+        SSEventDispatcher.dispatch(event);
     }
 
     public static boolean usePermissions() {
@@ -240,19 +256,13 @@ public class SignShop extends JavaPlugin {
         }
 
         if (getSignShopConfig().getTransactionLog()) {
-            try {
-                FileHandler fh = new FileHandler("plugins/SignShop/Transaction.log", true);
-                TransferFormatter formatter = new TransferFormatter();
-                fh.setFormatter(formatter);
-                fh.setLevel(Level.FINEST);
-                transactionlogger.addHandler(fh);
-                transactionlogger.setLevel(Level.INFO);
-                transactionlogger.setParent(logger);
-                transactionlogger.setUseParentHandlers(false);
-            } catch (IOException ex) {
-                log("Failed to create transaction log", Level.INFO);
-            }
+            TransactionLog.start(getDataFolder(), getSignShopConfig().getTransactionLogMaxSizeMB() * 1024L * 1024L,
+                    getSignShopConfig().getTransactionLogRotateHours() * 60L * 60L * 1000L);
         }
+        if (getSignShopConfig().getTransactionHistory())
+            TransactionHistory.init(getSignShopConfig().getTransactionHistoryRetentionDays());
+        if (getSignShopConfig().getDynamicPricing())
+            DemandTracker.start(getDataFolder(), getSignShopConfig().getDynamicPricingWindowHours());
 
         setupVault();
 
@@ -270,6 +280,7 @@ public class SignShop extends JavaPlugin {
                 pm.registerEvents(SListener, this);
             }
             registerSSListeners();
+            TickGovernor.start();
         }
         else {
             log("Vault was not found.", Level.WARNING);
@@ -321,21 +332,23 @@ public class SignShop extends JavaPlugin {
         return commandUtil.handleCommand(sender, cmd, commandLabel, args, commandDispatcher);
     }
 
-    private void closeHandlers() {
-        if (transactionlogger == null || transactionlogger.getHandlers() == null)
-            return;
-        Handler[] handlers = transactionlogger.getHandlers();
-        for (Handler handler : handlers) handler.close();
-    }
-
     @Override
     public void onDisable() {
-        closeHandlers();
+        TickGovernor.stop();
         if (store != null)
             store.Save();
         Storage.dispose();
         if (manager != null)
             manager.stop();
+        DemandTracker.stop();
+        PersistenceWriter.shutdown();
+        TransactionLog.shutdown();
+        ChunkPrefetcher.releaseAll();
+        SSEventDispatcher.clear();
+        PlayerMetadata.shutdown();
+        BooksDatabaseQueue.flush();
+        TransactionHistory.shutdown();
+        SSDatabase.closeAll();
         log("Disabled", Level.INFO);
     }
 
@@ -366,45 +379,51 @@ public class SignShop extends JavaPlugin {
         commandDispatcher.registerHandler("sign", HelpHandler.getInstance());
         commandDispatcher.registerHandler("list", HelpHandler.getInstance());
         commandDispatcher.registerHandler("unlink", UnlinkHandler.getInstance());
+        commandDispatcher.registerHandler("history", HistoryHandler.getInstance());
+        commandDispatcher.registerHandler("find", FindHandler.getInstance());
         commandDispatcher.registerHandler("", HelpHandler.getInstance());
         commandDispatcher.registerHandler("ignore", IgnoreHandler.getInstance());
+        commandDispatcher.registerHandler("compact", CompactHandler.getInstance());
+        commandDispatcher.registerHandler("perf", PerfHandler.getInstance());
     }
 
     private void registerSSListeners() {
-        PluginManager pm = getServer().getPluginManager();
-        pm.registerEvents(new SimpleBlacklister(), this);
-        pm.registerEvents(new SimpleMessenger(), this);
-        pm.registerEvents(new SimpleRestricter(), this);
-        pm.registerEvents(new SimpleShopLimiter(), this);
-        pm.registerEvents(new SimpleShopProtector(), this);
-        pm.registerEvents(new SimpleBlockProtector(), this);
-        pm.registerEvents(new PermissionChecker(), this);
-        pm.registerEvents(new PermitChecker(), this);
-        pm.registerEvents(new ShopUpdater(), this);
-        pm.registerEvents(new GetPriceFromWorth(), this);
-        pm.registerEvents(new ShopCooldown(), this);
-        pm.registerEvents(new StockChecker(), this);
-        pm.registerEvents(new TimedCommandListener(), this);
-        pm.registerEvents(new MoneyModifierListener(), this);
-        pm.registerEvents(new SignSidesValidator(),this);
+        SSEventDispatcher.clear();
+        SSEventDispatcher.registerInternal(new SimpleBlacklister(), this);
+        SSEventDispatcher.registerInternal(new SimpleMessenger(), this);
+        SSEventDispatcher.registerInternal(new SimpleRestricter(), this);
+        SSEventDispatcher.registerInternal(new SimpleShopLimiter(), this);
+        SSEventDispatcher.registerInternal(new SimpleShopProtector(), this);
+        SSEventDispatcher.registerInternal(new SimpleBlockProtector(), this);
+        SSEventDispatcher.registerInternal(new PermissionChecker(), this);
+        SSEventDispatcher.registerInternal(new PermitChecker(), this);
+        SSEventDispatcher.registerInternal(new ShopUpdater(), this);
+        SSEventDispatcher.registerInternal(new GetPriceFromWorth(), this);
+        SSEventDispatcher.registerInternal(new ShopCooldown(), this);
+        SSEventDispatcher.registerInternal(new StockChecker(), this);
+        SSEventDispatcher.registerInternal(new TimedCommandListener(), this);
+        SSEventDispatcher.registerInternal(new MoneyModifierListener(), this);
+        SSEventDispatcher.registerInternal(new SignSidesValidator(),this);
+        if (getSignShopConfig().getDynamicPricing())
+            SSEventDispatcher.registerInternal(new DemandRecorder(), this);
 
         // Dynmap integration (modern API listener pattern for Dynmap 3.0+)
         if (getSignShopConfig().getEnableDynmapSupport() && this.getServer().getPluginManager().isPluginEnabled("Dynmap")) {
             DynmapManager dmm = new DynmapManager();
-            pm.registerEvents(dmm, this);
+            SSEventDispatcher.registerInternal(dmm, this);
         }
 
         if (getSignShopConfig().getEnableShopPlotSupport()) {
             if (this.getServer().getPluginManager().isPluginEnabled("WorldGuard")) {
-                pm.registerEvents(new WorldGuardChecker(), this);
+                SSEventDispatcher.registerInternal(new WorldGuardChecker(), this);
             }
-            pm.registerEvents(new TownyChecker(), this);
+            SSEventDispatcher.registerInternal(new TownyChecker(), this);
         }
 
         // Money Transactions Types
-        pm.registerEvents(new DefaultMoneyTransaction(), this);
-        pm.registerEvents(new BankTransaction(), this);
-        pm.registerEvents(new SharedMoneyTransaction(), this);
+        SSEventDispatcher.registerInternal(new DefaultMoneyTransaction(), this);
+        SSEventDispatcher.registerInternal(new BankTransaction(), this);
+        SSEventDispatcher.registerInternal(new SharedMoneyTransaction(), this);
     }
 
     private void backupOldConfig() {
@@ -425,28 +444,4 @@ public class SignShop extends JavaPlugin {
     public Vault getVault() {
         return vault;
     }
-
-    private static class TransferFormatter extends Formatter {
-        private final DateFormat df = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss.SSS");
-
-        @Override
-        public String format(LogRecord record) {
-            StringBuilder builder = new StringBuilder(1000);
-            builder.append(df.format(new Date(record.getMillis()))).append(" - ");
-            builder.append("[").append(record.getLevel()).append("] - ");
-            builder.append(formatMessage(record));
-            builder.append("\n");
-            return builder.toString();
-        }
-
-        @Override
-        public String getHead(Handler h) {
-            return super.getHead(h);
-        }
-
-        @Override
-        public String getTail(Handler h) {
-            return super.getTail(h);
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package org.wargamer2010.signshop.commands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.configuration.SignShopConfig;
+import org.wargamer2010.signshop.operations.SignShopOperationListItem;
+import org.wargamer2010.signshop.operations.cooldown;
+import org.wargamer2010.signshop.player.PlayerMetadata;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.commandUtil;
+import org.wargamer2010.signshop.util.signshopUtil;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command handler for /signshop compact.
+ * Purges expired cooldown rows from player.db on an async task.
+ */
+public class CompactHandler implements ICommandHandler {
+    private static final ICommandHandler instance = new CompactHandler();
+
+    private CompactHandler() {
+
+    }
+
+    public static ICommandHandler getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean handle(String command, String[] args, SignShopPlayer player) {
+        if (signshopUtil.notOPForCommand(player))
+            return true;
+
+        // The config is only read here, on the command thread
+        Map<String, Long> cooldowns = getCooldownsBySignType(SignShop.getInstance().getSignShopConfig());
+        commandUtil.sendToPlayerOrConsole(ChatColor.GREEN + "Compacting player metadata...", player);
+        SignShop.getScheduler().runAsync(() -> {
+            int removed = PlayerMetadata.purgeStaleCooldowns(SignShop.getInstance(), cooldowns);
+            String message = (removed < 0)
+                    ? ChatColor.RED + "Compacting player metadata failed, check the logs for more information."
+                    : ChatColor.GREEN + "Removed " + removed + " stale cooldown(s) from player metadata.";
+            Player online = (player == null ? null : player.getPlayer());
+            if (online == null)
+                commandUtil.sendToPlayerOrConsole(message, null);
+            else
+                SignShop.getScheduler().runAtEntity(online, () -> commandUtil.sendToPlayerOrConsole(message, player));
+        });
+        return true;
+    }
+
+    private static Map<String, Long> getCooldownsBySignType(SignShopConfig config) {
+        Map<String, Long> cooldowns = new HashMap<>();
+        for (String op : config.getOperations()) {
+            List<SignShopOperationListItem> compiled = config.getCompiledOperations(op);
+            if (compiled == null)
+                continue;
+            for (SignShopOperationListItem item : compiled) {
+                if (!(item.getOperation() instanceof cooldown) || item.getParameters().isEmpty())
+                    continue;
+                try {
+                    long millis = Long.parseLong(item.getParameters().get(0)) * 1000L;
+                    cooldowns.put(op, millis);
+                    for (String alias : config.getAliases(op))
+                        cooldowns.put(alias.toLowerCase(), millis);
+                } catch (NumberFormatException ignored) {
+                }
+                break;
+            }
+        }
+        return cooldowns;
+    }
+}
@@ -0,0 +1,102 @@
+package org.wargamer2010.signshop.commands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.data.ShopSearchIndex;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.commandUtil;
+import org.wargamer2010.signshop.util.economyUtil;
+
+import java.util.List;
+
+/**
+ * Command handler for /signshop find &lt;item&gt; [buy|sell] [radius].
+ * Lists the shops closest to the player that sell (buy) or buy (sell) an item, using {@link ShopSearchIndex}.
+ * The search runs on an async task from the position the player had when running the command.
+ */
+public class FindHandler implements ICommandHandler {
+    private static final ICommandHandler instance = new FindHandler();
+    private static final int maxResults = 10;
+
+    private FindHandler() {
+
+    }
+
+    public static ICommandHandler getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean handle(String command, String[] args, SignShopPlayer player) {
+        Player online = (player == null ? null : player.getPlayer());
+        if (online == null) {
+            commandUtil.sendToPlayerOrConsole("Finding shops near you is not possible from console", player);
+            return true;
+        }
+        if (args.length == 0)
+            return printUsage(player);
+
+        Material material = Material.matchMaterial(args[0]);
+        if (material == null) {
+            commandUtil.sendToPlayerOrConsole(ChatColor.RED + "Unknown item: " + args[0], player);
+            return true;
+        }
+
+        ShopSearchIndex.Direction direction = null;
+        int radius = 0;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i].toLowerCase();
+            if (arg.equals("buy"))
+                direction = ShopSearchIndex.Direction.BUY;
+            else if (arg.equals("sell"))
+                direction = ShopSearchIndex.Direction.SELL;
+            else if (commandUtil.isNumber(arg))
+                radius = Integer.parseInt(arg);
+            else
+                return printUsage(player);
+        }
+
+        Location location = online.getLocation();
+        String world = online.getWorld().getName();
+        ShopSearchIndex.Direction searched = direction;
+        int searchRadius = radius;
+        SignShop.getScheduler().runAsync(() -> {
+            List<ShopSearchIndex.Result> results = ShopSearchIndex.findNearest(material, searched, world, location.getX(), location.getY(), location.getZ(),
+                    searchRadius, maxResults);
+            String message = formatResults(material, searched, searchRadius, results);
+            Player target = player.getPlayer();
+            if (target != null)
+                SignShop.getScheduler().runAtEntity(target, () -> commandUtil.sendToPlayerOrConsole(message, player));
+        });
+        return true;
+    }
+
+    private static String formatResults(Material material, ShopSearchIndex.Direction direction, int radius, List<ShopSearchIndex.Result> results) {
+        String what = (direction == null ? "trading" : (direction == ShopSearchIndex.Direction.BUY ? "selling" : "buying"));
+        String where = (radius > 0 ? " within " + radius + " blocks" : " in this world");
+        if (results.isEmpty())
+            return ChatColor.RED + "No shops " + what + " " + material.name() + where + ".";
+
+        StringBuilder builder = new StringBuilder(ChatColor.GREEN + "Closest shops " + what + " " + material.name() + where + ":");
+        int rank = 1;
+        for (ShopSearchIndex.Result result : results) {
+            ShopSearchIndex.Listing listing = result.listing;
+            builder.append('\n').append(ChatColor.GOLD).append(rank++).append(". ").append(ChatColor.WHITE)
+                    .append(listing.direction == ShopSearchIndex.Direction.BUY ? "Sells " : "Buys ")
+                    .append(result.amount).append(" for ").append(economyUtil.formatMoney(listing.price)).append(ChatColor.WHITE)
+                    .append(" (").append(economyUtil.formatMoney(result.pricePerItem)).append(ChatColor.WHITE).append(" each)")
+                    .append(" from ").append(listing.ownerName)
+                    .append(" at ").append(listing.x).append(", ").append(listing.y).append(", ").append(listing.z)
+                    .append(ChatColor.GRAY).append(" (").append((int) Math.round(result.distance)).append("m)");
+        }
+        return builder.toString();
+    }
+
+    private static boolean printUsage(SignShopPlayer player) {
+        commandUtil.sendToPlayerOrConsole(ChatColor.GOLD + "Usage: /signshop find <item> [buy|sell] [radius]", player);
+        return true;
+    }
+}
@@ -0,0 +1,188 @@
+package org.wargamer2010.signshop.commands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.data.Storage;
+import org.wargamer2010.signshop.data.TransactionHistory;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.commandUtil;
+import org.wargamer2010.signshop.util.economyUtil;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Command handler for /signshop history.
+ * Looks up past transactions in {@link TransactionHistory} asynchronously and pages the results back.
+ *
+ * <ul>
+ *   <li>history shop [page] - the shop sign the player is looking at</li>
+ *   <li>history owner [player] [page] - shops owned by the player</li>
+ *   <li>history customer [player] [page] - purchases and sales made by the player</li>
+ *   <li>history item &lt;material&gt; [days] [page] - owners whose shops traded the most of an item</li>
+ * </ul>
+ * Looking at other players' shops or transactions, which includes the item ranking, requires OP.
+ */
+public class HistoryHandler implements ICommandHandler {
+    private static final ICommandHandler instance = new HistoryHandler();
+    private static final int pageSize = 10;
+    private static final int lookDistance = 5;
+    private static final int defaultItemDays = 7;
+
+    private HistoryHandler() {
+
+    }
+
+    public static ICommandHandler getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean handle(String command, String[] args, SignShopPlayer player) {
+        if (!TransactionHistory.isEnabled()) {
+            commandUtil.sendToPlayerOrConsole(ChatColor.RED + "Transaction history is disabled, enable TransactionHistory in the config.", player);
+            return true;
+        }
+
+        String type = (args.length == 0 ? "shop" : args[0].toLowerCase());
+        switch (type) {
+            case "shop":
+                return handleShop(args, player);
+            case "owner":
+            case "customer":
+                return handlePlayer(type, args, player);
+            case "item":
+                return handleItem(args, player);
+            default:
+                return printUsage(player);
+        }
+    }
+
+    private boolean handleShop(String[] args, SignShopPlayer player) {
+        if (player == null || player.getPlayer() == null) {
+            commandUtil.sendToPlayerOrConsole("It is not possible to look at a shop from console", player);
+            return true;
+        }
+        Block target = player.getPlayer().getTargetBlockExact(lookDistance);
+        Seller seller = (target == null ? null : Storage.get().getSeller(target.getLocation()));
+        if (seller == null) {
+            commandUtil.sendToPlayerOrConsole(ChatColor.RED + "Look at a shop sign to see its history.", player);
+            return true;
+        }
+        if (!seller.isOwner(player) && !player.isOp()) {
+            commandUtil.sendToPlayerOrConsole(ChatColor.RED + "You can only see the history of your own shops.", player);
+            return true;
+        }
+
+        int page = getPage(args, 1);
+        Location location = seller.getSignLocation();
+        runQuery(player, "History of the shop at " + location.getBlockX() + ", " + location.getBlockY() + ", " + location.getBlockZ(), page,
+                () -> formatRows(TransactionHistory.getByShop(location, page, pageSize)));
+        return true;
+    }
+
+    private boolean handlePlayer(String type, String[] args, SignShopPlayer player) {
+        String name = ((args.length > 1 && !commandUtil.isNumber(args[1])) ? args[1] : null);
+        int page = getPage(args, (name == null ? 1 : 2));
+        if (name == null && player == null)
+            return printUsage(null);
+        if (name != null && player != null && !name.equalsIgnoreCase(player.getName()) && !player.isOp()) {
+            commandUtil.sendToPlayerOrConsole(ChatColor.RED + "You can only see your own history.", player);
+            return true;
+        }
+
+        String shownName = (name == null ? player.getName() : name);
+        boolean byOwner = type.equals("owner");
+        runQuery(player, (byOwner ? "Transactions in shops of " : "Transactions made by ") + shownName, page, () -> {
+            SignShopPlayer target = (name == null ? player : PlayerIdentifier.getByName(name));
+            if (target == null || target.GetIdentifier() == null)
+                return null;
+            String id = target.GetIdentifier().getStringIdentifier();
+            return formatRows(byOwner ? TransactionHistory.getByOwner(id, page, pageSize) : TransactionHistory.getByCustomer(id, page, pageSize));
+        });
+        return true;
+    }
+
+    private boolean handleItem(String[] args, SignShopPlayer player) {
+        // The ranking names other players and how much they trade
+        if (player != null && !player.isOp()) {
+            commandUtil.sendToPlayerOrConsole(ChatColor.RED + "Only operators can see which shops trade the most of an item.", player);
+            return true;
+        }
+        if (args.length < 2)
+            return printUsage(player);
+        Material material = Material.matchMaterial(args[1]);
+        if (material == null) {
+            commandUtil.sendToPlayerOrConsole(ChatColor.RED + "Unknown item: " + args[1], player);
+            return true;
+        }
+        int days = ((args.length > 2 && commandUtil.isNumber(args[2])) ? Math.max(1, Integer.parseInt(args[2])) : defaultItemDays);
+        int page = getPage(args, 3);
+        long since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+
+        runQuery(player, "Shop owners trading the most " + material.name() + " in the last " + days + " day(s)", page, () -> {
+            List<String> lines = new ArrayList<>();
+            int rank = ((page - 1) * pageSize) + 1;
+            for (TransactionHistory.TopOwner owner : TransactionHistory.getTopOwners(material.name(), since, page, pageSize))
+                lines.add(ChatColor.GOLD + "" + (rank++) + ". " + ChatColor.WHITE + owner.ownerName + ": " + owner.amount + " in " + owner.transactions + " transaction(s)");
+            return lines;
+        });
+        return true;
+    }
+
+    /**
+     * Runs the query on an async task and sends the result back on the thread of the player
+     */
+    private static void runQuery(SignShopPlayer player, String title, int page, Supplier<List<String>> query) {
+        SignShop.getScheduler().runAsync(() -> {
+            List<String> lines = query.get();
+            String message;
+            if (lines == null)
+                message = ChatColor.RED + "That player could not be found.";
+            else if (lines.isEmpty())
+                message = ChatColor.RED + (page > 1 ? "There are no more transactions." : "No transactions found.");
+            else
+                message = ChatColor.GREEN + title + " (page " + page + "):\n" + String.join("\n", lines);
+
+            Player online = (player == null ? null : player.getPlayer());
+            if (online == null)
+                commandUtil.sendToPlayerOrConsole(message, null);
+            else
+                SignShop.getScheduler().runAtEntity(online, () -> commandUtil.sendToPlayerOrConsole(message, player));
+        });
+    }
+
+    private static List<String> formatRows(List<TransactionHistory.Row> rows) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        List<String> lines = new ArrayList<>();
+        for (TransactionHistory.Row row : rows) {
+            lines.add(ChatColor.GOLD + format.format(new Date(row.time)) + " " + ChatColor.WHITE + row.customerName
+                    + " used " + row.operation + " of " + row.ownerName
+                    + (row.items.isEmpty() ? "" : " (" + row.items + ")")
+                    + " for " + economyUtil.formatMoney(row.price) + ChatColor.WHITE
+                    + " at " + row.world + " " + row.x + ", " + row.y + ", " + row.z);
+        }
+        return lines;
+    }
+
+    private static int getPage(String[] args, int index) {
+        if (args.length > index && commandUtil.isNumber(args[index]))
+            return Math.max(1, Integer.parseInt(args[index]));
+        return 1;
+    }
+
+    private static boolean printUsage(SignShopPlayer player) {
+        commandUtil.sendToPlayerOrConsole(ChatColor.GOLD + "Usage: /signshop history [shop|owner [player]|customer [player]|item <material> [days]] [page]", player);
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package org.wargamer2010.signshop.commands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.PerfStats;
+import org.wargamer2010.signshop.util.commandUtil;
+import org.wargamer2010.signshop.util.signshopUtil;
+
+import java.io.File;
+
+/**
+ * Command handler for /signshop perf [reset|dump].
+ * Shows the latency percentiles and counters collected by {@link PerfStats}.
+ */
+public class PerfHandler implements ICommandHandler {
+    private static final ICommandHandler instance = new PerfHandler();
+
+    private PerfHandler() {
+
+    }
+
+    public static ICommandHandler getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean handle(String command, String[] args, SignShopPlayer player) {
+        if (signshopUtil.notOPForCommand(player))
+            return true;
+
+        String action = (args.length == 0 ? "" : args[0].toLowerCase());
+        if (action.equals("reset")) {
+            PerfStats.reset();
+            commandUtil.sendToPlayerOrConsole(ChatColor.GREEN + "Performance statistics have been reset.", player);
+        } else if (action.equals("dump")) {
+            SignShop.getScheduler().runAsync(() -> {
+                File file = PerfStats.dump();
+                String message = (file == null)
+                        ? ChatColor.RED + "Could not write the performance statistics, check the logs for more information."
+                        : ChatColor.GREEN + "Performance statistics written to " + file.getPath();
+                Player online = (player == null ? null : player.getPlayer());
+                if (online == null)
+                    commandUtil.sendToPlayerOrConsole(message, null);
+                else
+                    SignShop.getScheduler().runAtEntity(online, () -> commandUtil.sendToPlayerOrConsole(message, player));
+            });
+        } else {
+            commandUtil.sendToPlayerOrConsole(ChatColor.GREEN + String.join("\n", PerfStats.getReport()), player);
+        }
+        return true;
+    }
+}
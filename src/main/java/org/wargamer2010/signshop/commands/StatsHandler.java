@@ -9,7 +9,10 @@ import org.bukkit.plugin.PluginManager;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.Vault;
 import org.wargamer2010.signshop.data.Storage;
+import org.wargamer2010.signshop.player.PlayerCache;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
 import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.economyUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
 import java.util.logging.Level;
@@ -36,6 +39,9 @@ public class StatsHandler implements ICommandHandler {
 
         PluginDescriptionFile pdfFile = SignShop.getInstance().getDescription();
         String message = "Amount of Shops: " + Storage.get().shopCount() + "\n"
+                + "Price cache: " + economyUtil.getPriceCache().getStats() + "\n"
+                + "Player cache: " + PlayerCache.getOnlineCount() + " online, offline " + PlayerCache.getOfflineCache().getStats() + "\n"
+                + "Name cache: " + PlayerIdentifier.getNameCache().getStats() + "\n"
                 + "SignShop version: " + pdfFile.getVersion() + "\n";
 
         PluginManager manager = Bukkit.getPluginManager();
@@ -0,0 +1,192 @@
+package org.wargamer2010.signshop.configuration;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.util.PerfStats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Single writer thread shared by every {@link FileSaveWorker}.
+ *
+ * <p>Saves are keyed by file. Queuing a save for a file that is still waiting to be written
+ * replaces the pending configuration, so only the latest state of each file hits the disk.
+ * The thread sleeps until a save is queued; there is no polling.</p>
+ *
+ * <p>{@link #flush(File)} and {@link #shutdown()} block until the pending saves are on disk,
+ * which is what onDisable needs.</p>
+ */
+public class PersistenceWriter {
+    private static final String threadName = "SignShop-Persistence";
+    private static final long flushTimeoutMillis = 30 * 1000L;
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition workAvailable = lock.newCondition();
+    private static final Condition fileWritten = lock.newCondition();
+    private static final Map<File, FileConfiguration> pending = new LinkedHashMap<>();
+    private static File writing = null;
+    private static Thread thread = null;
+
+    private PersistenceWriter() {
+
+    }
+
+    /**
+     * Queues the configuration to be saved to the given file, replacing any save for that file
+     * that has not been written yet
+     *
+     * @param file Target file
+     * @param config Configuration to save
+     */
+    public static void submit(File file, FileConfiguration config) {
+        lock.lock();
+        try {
+            pending.put(file, config);
+            ensureRunning();
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until no save for the given file is pending or being written
+     *
+     * @param file File to wait for
+     */
+    public static void flush(File file) {
+        awaitWritten(file);
+    }
+
+    /**
+     * Writes everything that is still pending, then stops the writer thread.
+     * A later {@link #submit} starts a new thread, so this is safe across reloads.
+     */
+    public static void shutdown() {
+        awaitWritten(null);
+        Thread stopping;
+        lock.lock();
+        try {
+            stopping = thread;
+            thread = null;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (stopping == null)
+            return;
+        try {
+            stopping.join(flushTimeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param file File to wait for, or null to wait for all files
+     */
+    private static void awaitWritten(File file) {
+        long deadline = System.currentTimeMillis() + flushTimeoutMillis;
+        lock.lock();
+        try {
+            while (isBusyWith(file)) {
+                long left = (deadline - System.currentTimeMillis());
+                if (thread == null || !thread.isAlive() || left <= 0)
+                    break;
+                fileWritten.await(left, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        // If the writer is gone or stuck, write what is left on this thread rather than losing it
+        writeRemaining(file);
+    }
+
+    private static boolean isBusyWith(File file) {
+        if (file == null)
+            return (!pending.isEmpty() || writing != null);
+        return (pending.containsKey(file) || file.equals(writing));
+    }
+
+    private static void writeRemaining(File file) {
+        Map<File, FileConfiguration> remaining = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            Iterator<Map.Entry<File, FileConfiguration>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<File, FileConfiguration> entry = it.next();
+                if (file == null || file.equals(entry.getKey())) {
+                    remaining.put(entry.getKey(), entry.getValue());
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<File, FileConfiguration> entry : remaining.entrySet())
+            save(entry.getKey(), entry.getValue());
+    }
+
+    private static void ensureRunning() {
+        if (thread != null && thread.isAlive())
+            return;
+        thread = new Thread(PersistenceWriter::runWriter, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void runWriter() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            File file;
+            FileConfiguration config;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && thread == self)
+                    workAvailable.awaitUninterruptibly();
+                if (thread != self)
+                    return; // Shut down, or replaced after a shutdown
+                Iterator<Map.Entry<File, FileConfiguration>> it = pending.entrySet().iterator();
+                Map.Entry<File, FileConfiguration> next = it.next();
+                it.remove();
+                file = next.getKey();
+                config = next.getValue();
+                writing = file;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                save(file, config);
+            } finally {
+                lock.lock();
+                try {
+                    writing = null;
+                    fileWritten.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static void save(File file, FileConfiguration config) {
+        long start = PerfStats.start();
+        try {
+            config.save(file);
+            PerfStats.record("storage.write." + file.getName(), start);
+        } catch (IOException | RuntimeException ex) {
+            SignShop.log("Failed to save " + file.getName() + " because: " + ex.getMessage(), Level.WARNING);
+        }
+    }
+}
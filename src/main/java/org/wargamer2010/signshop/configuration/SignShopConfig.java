@@ -96,8 +96,19 @@ public class SignShopConfig {
     private int ShopCooldown = 0;
     private int MessageCooldown = 0;
     private int ChunkLoadRadius = 2;
+    private boolean PrefetchLinkedChunks = false;
+    private int DeferredWorkBudgetMillis = 2;
     private int MaxChestsPerShop = 100;
     private boolean TransactionLog = false;
+    private int TransactionLogMaxSizeMB = 10;
+    private int TransactionLogRotateHours = 24;
+    private boolean TransactionHistory = false;
+    private int TransactionHistoryRetentionDays = 90;
+    private boolean DynamicPricing = false;
+    private int DynamicPricingWindowHours = 24;
+    private int DynamicPricingMaxChangePercent = 25;
+    private int DynamicPricingVolume = 256;
+    private int DynamicPricingShopWeightPercent = 25;
     private boolean Debugging = false;
     private boolean MetricsEnabled = true;
     private boolean OPOverride = true;
@@ -113,6 +124,7 @@ public class SignShopConfig {
     private boolean fixIncompleteOperations = true;
     private boolean EnablePriceFromWorth = false;
     private boolean EnableDynmapSupport = false;
+    private int DynmapMarkersPerTick = 100;
     private boolean EnableTutorialMessages = true;
     private boolean EnableShopPlotSupport = true;
     private boolean EnableShopOwnerProtection = true;
@@ -286,10 +298,22 @@ public class SignShopConfig {
        // ConfigVersionDoNotTouch = ymlThing.getInt("ConfigVersionDoNotTouch", ConfigVersionDoNotTouch);
         MaxSellDistance = ymlThing.getInt("MaxSellDistance", MaxSellDistance);
         TransactionLog = ymlThing.getBoolean("TransactionLog", TransactionLog);
+        TransactionLogMaxSizeMB = ymlThing.getInt("TransactionLogMaxSizeMB", TransactionLogMaxSizeMB);
+        TransactionLogRotateHours = ymlThing.getInt("TransactionLogRotateHours", TransactionLogRotateHours);
+        TransactionHistory = ymlThing.getBoolean("TransactionHistory", TransactionHistory);
+        TransactionHistoryRetentionDays = ymlThing.getInt("TransactionHistoryRetentionDays", TransactionHistoryRetentionDays);
+        DynamicPricing = ymlThing.getBoolean("DynamicPricing", DynamicPricing);
+        DynamicPricingWindowHours = ymlThing.getInt("DynamicPricingWindowHours", DynamicPricingWindowHours);
+        // Demand stays between -1 and 1, so anything below 100 keeps prices above zero
+        DynamicPricingMaxChangePercent = Math.max(0, Math.min(99, ymlThing.getInt("DynamicPricingMaxChangePercent", DynamicPricingMaxChangePercent)));
+        DynamicPricingVolume = ymlThing.getInt("DynamicPricingVolume", DynamicPricingVolume);
+        DynamicPricingShopWeightPercent = Math.max(0, Math.min(100, ymlThing.getInt("DynamicPricingShopWeightPercent", DynamicPricingShopWeightPercent)));
         Debugging = ymlThing.getBoolean("Debugging", Debugging);
         MetricsEnabled = ymlThing.getBoolean("MetricsEnabled", MetricsEnabled);
         MaxShopsPerPerson = ymlThing.getInt("MaxShopsPerPerson", MaxShopsPerPerson);
         ChunkLoadRadius = ymlThing.getInt("ChunkLoadRadius", ChunkLoadRadius);
+        PrefetchLinkedChunks = ymlThing.getBoolean("PrefetchLinkedChunks", PrefetchLinkedChunks);
+        DeferredWorkBudgetMillis = ymlThing.getInt("DeferredWorkBudgetMillis", DeferredWorkBudgetMillis);
         ShopCooldown = ymlThing.getInt("ShopCooldownMilliseconds", ShopCooldown);
         MessageCooldown = ymlThing.getInt("MessageCooldownSeconds", MessageCooldown);
         MaxChestsPerShop = ymlThing.getInt("MaxChestsPerShop", MaxChestsPerShop);
@@ -306,6 +330,7 @@ public class SignShopConfig {
         fixIncompleteOperations = ymlThing.getBoolean("fixIncompleteOperations", fixIncompleteOperations);
         EnablePriceFromWorth = ymlThing.getBoolean("EnablePriceFromWorth", EnablePriceFromWorth);
         EnableDynmapSupport = ymlThing.getBoolean("EnableDynmapSupport", EnableDynmapSupport);
+        DynmapMarkersPerTick = Math.max(1, ymlThing.getInt("DynmapMarkersPerTick", DynmapMarkersPerTick));
         EnableTutorialMessages = ymlThing.getBoolean("EnableTutorialMessages", EnableTutorialMessages);
         EnableShopPlotSupport = ymlThing.getBoolean("EnableShopPlotSupport", EnableShopPlotSupport);
         EnableShopOwnerProtection = ymlThing.getBoolean("EnableShopOwnerProtection", EnableShopOwnerProtection);
@@ -1000,6 +1025,14 @@ public class SignShopConfig {
         return ChunkLoadRadius;
     }
 
+    public boolean getPrefetchLinkedChunks() {
+        return PrefetchLinkedChunks;
+    }
+
+    public int getDeferredWorkBudgetMillis() {
+        return DeferredWorkBudgetMillis;
+    }
+
     public int getMessageCooldown() {
         return MessageCooldown;
     }
@@ -1044,6 +1077,42 @@ public class SignShopConfig {
         return TransactionLog;
     }
 
+    public int getTransactionLogMaxSizeMB() {
+        return TransactionLogMaxSizeMB;
+    }
+
+    public int getTransactionLogRotateHours() {
+        return TransactionLogRotateHours;
+    }
+
+    public boolean getTransactionHistory() {
+        return TransactionHistory;
+    }
+
+    public int getTransactionHistoryRetentionDays() {
+        return TransactionHistoryRetentionDays;
+    }
+
+    public boolean getDynamicPricing() {
+        return DynamicPricing;
+    }
+
+    public int getDynamicPricingWindowHours() {
+        return DynamicPricingWindowHours;
+    }
+
+    public int getDynamicPricingMaxChangePercent() {
+        return DynamicPricingMaxChangePercent;
+    }
+
+    public int getDynamicPricingVolume() {
+        return DynamicPricingVolume;
+    }
+
+    public int getDynamicPricingShopWeightPercent() {
+        return DynamicPricingShopWeightPercent;
+    }
+
     public boolean getDisableEssentialsSigns() {
         return DisableEssentialsSigns;
     }
@@ -1056,6 +1125,10 @@ public class SignShopConfig {
         return EnableDynmapSupport;
     }
 
+    public int getDynmapMarkersPerTick() {
+        return DynmapMarkersPerTick;
+    }
+
     public boolean getShowMaterialInCustomNames() {
         return ShowMaterialInCustomNames;
     }
@@ -1120,6 +1193,7 @@ public class SignShopConfig {
 
     public void setAllowCommaDecimalSeparator(CommaDecimalSeparatorState state, boolean doSave) {
         AllowCommaDecimalSeparator = state;
+        economyUtil.invalidatePriceCache();
 
         if (doSave) {
             FileConfiguration ymlThing = configUtil.loadYMLFromPluginFolder(CONFIG_FILENAME);
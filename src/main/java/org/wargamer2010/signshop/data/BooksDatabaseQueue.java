@@ -0,0 +1,83 @@
+package org.wargamer2010.signshop.data;
+
+import org.wargamer2010.signshop.SignShop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Batches inserts into books.db for {@link SignShopBooks} and {@link SignShopItemMeta}.
+ *
+ * <p>Queued writes are applied on an async task shortly after they are queued, all of them in
+ * a single transaction, so storing the contents of a full chest does not block the tick thread
+ * on SQLite. {@link #flush()} applies the queue on the calling thread and is used when a caller
+ * needs an ID that is still pending, and on shutdown.</p>
+ */
+public class BooksDatabaseQueue {
+    private static final String filename = "books.db";
+    private static final long flushDelayTicks = 10;
+    private static final List<QueuedWrite> queue = new ArrayList<>();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private static final Object flushLock = new Object();
+
+    private BooksDatabaseQueue() {
+
+    }
+
+    static void queue(QueuedWrite write) {
+        synchronized (queue) {
+            queue.add(write);
+        }
+        if (flushScheduled.compareAndSet(false, true))
+            SignShop.getScheduler().runAsyncLater(() -> {
+                flushScheduled.set(false);
+                flush();
+            }, flushDelayTicks);
+    }
+
+    /**
+     * Writes all queued inserts to books.db in a single transaction.
+     */
+    public static void flush() {
+        synchronized (flushLock) {
+            List<QueuedWrite> writes;
+            synchronized (queue) {
+                if (queue.isEmpty())
+                    return;
+                writes = new ArrayList<>(queue);
+                queue.clear();
+            }
+
+            SSDatabase db = new SSDatabase(filename);
+            boolean committed;
+            try {
+                committed = db.runInTransaction(() -> {
+                    for (QueuedWrite write : writes)
+                        write.write(db);
+                });
+            } finally {
+                db.close();
+            }
+            if (!committed)
+                SignShop.log("Could not write " + writes.size() + " book/meta change(s) to " + filename, Level.WARNING);
+            for (QueuedWrite write : writes)
+                write.done(committed);
+        }
+    }
+
+    interface QueuedWrite {
+        /**
+         * Runs the statements for this write, inside the batch transaction
+         */
+        void write(SSDatabase db);
+
+        /**
+         * Called after the batch transaction finished
+         *
+         * @param committed False if the batch was rolled back and nothing was written
+         */
+        void done(boolean committed);
+    }
+}
@@ -1,68 +1,80 @@
-
 package org.wargamer2010.signshop.data;
 
 import org.wargamer2010.signshop.SignShop;
 
 import java.io.File;
 import java.sql.*;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Properties;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 /**
  * SQLite database wrapper for SignShop persistent data.
+ *
+ * <p>Every database file is backed by a single long-lived JDBC connection running in WAL
+ * journal mode, shared by all SSDatabase instances for that file. Update statements are
+ * cached per connection by their SQL text, so constructing an SSDatabase and running an
+ * update does not touch the filesystem after the first use.</p>
+ *
+ * <p>Queries get a statement of their own, as the result set of a statement is reset when it
+ * runs again. {@link #runQuery} reads all rows while holding the connection and is what new
+ * code should use; the result sets returned by {@link #runStatement} are read without it.</p>
+ *
+ * <p>{@link #close()} only releases the statements and result sets handed out by this
+ * instance; the pooled connections are closed by {@link #closeAll()} when the plugin is
+ * disabled.</p>
  */
 public class SSDatabase {
     private static final String downloadURL = "https://cloud.github.com/downloads/wargamer/SignShop/";
+    private static final String dbdirname = "db";
     private static Driver driver = null;
-    private Connection conn = null;
-    private String filename;
+    private static final Map<String, String> resolvedFilenames = new ConcurrentHashMap<>();
+    private static final Map<String, PooledConnection> connections = new ConcurrentHashMap<>();
+    private final List<Statement> openStatements = new LinkedList<>();
+    private PooledConnection pooled = null;
+    private final String filename;
 
     public SSDatabase(final String pFilename) {
-        filename = pFilename;
-
         if(driver == null)
             loadLib();
 
-        checkLegacy();
+        filename = resolvedFilenames.computeIfAbsent(pFilename, SSDatabase::checkLegacy);
         if(!open())
             SignShop.log("Connection to: " + filename + " could not be established", Level.WARNING);
     }
 
-    private void checkLegacy() {
-        String dbdirname = "db";
+    private static String checkLegacy(String filename) {
         File dbdir = new File(SignShop.getInstance().getDataFolder(), dbdirname);
         if(!dbdir.exists() && !dbdir.mkdirs()) {
             SignShop.log("Could not create db directory in plugin folder. Will use old path (plugins/SignShop) in stead of (plugins/SignShop/ " + dbdirname + ").", Level.WARNING);
-            return;
+            return filename;
         }
         File olddb = new File(SignShop.getInstance().getDataFolder(), filename);
         File newdb = new File(SignShop.getInstance().getDataFolder(), (dbdirname + File.separator + filename));
         if(olddb.exists()) {
             if(!newdb.exists() && !olddb.renameTo(newdb)) {
                 SignShop.log("Could not move " + filename + " to (plugins/SignShop/ " + dbdirname + ") directory. Please move the file manually. Will use old path for now.", Level.WARNING);
-                return;
+                return filename;
             }
         }
 
-        filename = (dbdirname + File.separator + filename);
+        return (dbdirname + File.separator + filename);
     }
 
     public Boolean tableExists(String tablename) {
-        try {
-            Map<Integer, Object> pars = new LinkedHashMap<>();
-            pars.put(1, "table");
-            pars.put(2, tablename);
-            ResultSet set = (ResultSet)runStatement("SELECT name FROM sqlite_master WHERE type = ? AND name = ?;", pars, true);
-            if(set != null && set.next()) {
-                set.close();
-                return true;
-            }
-        } catch (SQLException ignored) {
-        }
+        return schemaObjectExists("table", tablename);
+    }
 
-        return false;
+    public Boolean indexExists(String indexname) {
+        return schemaObjectExists("index", indexname);
+    }
+
+    private Boolean schemaObjectExists(String type, String name) {
+        Map<Integer, Object> pars = new LinkedHashMap<>();
+        pars.put(1, type);
+        pars.put(2, name);
+        List<String> names = runQuery("SELECT name FROM sqlite_master WHERE type = ? AND name = ?;", pars, set -> set.getString("name"));
+        return (names != null && !names.isEmpty());
     }
 
     public boolean columnExists(String needle) {
@@ -98,70 +110,262 @@ public class SSDatabase {
     public final boolean open() {
         if(driver == null)
             return false;
-        try {
-            File DBFile = new File(SignShop.getInstance().getDataFolder(), filename);
-            conn = driver.connect("jdbc:sqlite:" + DBFile.getPath(), new Properties());
-        } catch (SQLException ignored) {
-
-        }
-        return (conn != null);
+        pooled = connections.compute(filename, (name, existing) -> (existing != null && existing.isValid()) ? existing : PooledConnection.connect(name));
+        return (pooled != null);
     }
 
+    /**
+     * Releases the statements and result sets returned by this instance.
+     * The underlying connection stays open for reuse, see {@link #closeAll()}.
+     */
     public void close() {
-        if (conn == null || driver == null)
+        if (pooled == null)
             return;
-        try {
-            conn.close();
-        } catch (SQLException ignored) {
+        synchronized (pooled) {
+            for (Statement st : openStatements) {
+                try {
+                    st.close();
+                } catch (SQLException ignored) {
+                }
+            }
         }
+        openStatements.clear();
     }
 
-    public Object runStatement(String Query, Map<Integer, Object> params, Boolean expectingResult) {
-        try {
-            if(conn == null) {
-                SignShop.log("Query: " + Query + " could not be run because the connection to: " + filename + " could not be established", Level.WARNING);
-                return null;
-            }
+    /**
+     * Closes every pooled connection and its cached statements.
+     * To be called once when the plugin is disabled.
+     */
+    public static void closeAll() {
+        for (PooledConnection connection : connections.values())
+            connection.close();
+        connections.clear();
+        resolvedFilenames.clear();
+    }
 
-            // Only request generated keys for INSERT statements
-            String upperQuery = Query.trim().toUpperCase();
-            boolean isInsert = upperQuery.startsWith("INSERT");
-            int autoGenKeys = isInsert ? PreparedStatement.RETURN_GENERATED_KEYS : PreparedStatement.NO_GENERATED_KEYS;
-            PreparedStatement st = conn.prepareStatement(Query, autoGenKeys);
-
-            if(params != null && !params.isEmpty()) {
-                for(Map.Entry<Integer, Object> param : params.entrySet()) {
-                    if (param.getValue() == null) {
-                        SignShop.log("Query: " + Query + " with Key: "+param.getKey()+ " has null value. Setting the value to a String object of 'null'", Level.WARNING);
-                        param.setValue("null");
-                    }
-                    if(param.getValue().getClass().equals(int.class) || param.getValue().getClass().equals(Integer.class)) {
-                        st.setInt(param.getKey(), ((Integer)param.getValue()));
-                    } else if(param.getValue().getClass().equals(String.class)) {
-                        st.setString(param.getKey(), ((String)param.getValue()));
+    /**
+     * Runs the given work as a single SQLite transaction on the pooled connection.
+     * Other users of the same database file wait until the transaction is committed.
+     * If any {@link #runStatement} in the work fails, the whole transaction is rolled back.
+     *
+     * @param work Statements to run, typically a batch of {@link #runStatement} calls
+     * @return True if the transaction was committed
+     */
+    public boolean runInTransaction(Runnable work) {
+        if(pooled == null)
+            return false;
+
+        synchronized (pooled) {
+            try {
+                pooled.conn.setAutoCommit(false);
+                pooled.inTransaction = true;
+                pooled.transactionFailed = false;
+                try {
+                    work.run();
+                    if (pooled.transactionFailed) {
+                        SignShop.log("Transaction on: " + filename + " was rolled back because one of its statements failed", Level.WARNING);
+                        pooled.conn.rollback();
+                        return false;
                     }
+                    pooled.conn.commit();
+                    return true;
+                } catch (RuntimeException | SQLException ex) {
+                    SignShop.log("Transaction on: " + filename + " was rolled back because: " + ex.getMessage(), Level.WARNING);
+                    pooled.conn.rollback();
+                    return false;
+                } finally {
+                    pooled.inTransaction = false;
+                    pooled.transactionFailed = false;
+                    pooled.conn.setAutoCommit(true);
                 }
+            } catch (SQLException ex) {
+                SignShop.log("Could not run transaction on: " + filename + " because: " + ex.getMessage(), Level.WARNING);
+                return false;
             }
-            if(expectingResult) {
-                return st.executeQuery();
-            } else {
-                int result = st.executeUpdate();
-
-                // Only attempt to retrieve generated keys for INSERT statements
-                if(isInsert) {
-                    try (ResultSet genKeys = st.getGeneratedKeys()) {
-                        if(genKeys != null && genKeys.next()) {
-                            return genKeys.getInt(1);  // Use column index for portability
+        }
+    }
+
+    public Object runStatement(String Query, Map<Integer, Object> params, Boolean expectingResult) {
+        if(pooled == null) {
+            SignShop.log("Query: " + Query + " could not be run because the connection to: " + filename + " could not be established", Level.WARNING);
+            return null;
+        }
+
+        synchronized (pooled) {
+            PreparedStatement queryStatement = null;
+            try {
+                // Only request generated keys for INSERT statements
+                String upperQuery = Query.trim().toUpperCase();
+                boolean isInsert = upperQuery.startsWith("INSERT");
+                PreparedStatement st;
+                if(expectingResult) {
+                    // The caller reads the result set after the lock is released, so it gets a statement of its own
+                    st = queryStatement = pooled.conn.prepareStatement(Query);
+                } else {
+                    st = pooled.prepare(Query, isInsert);
+                    st.clearParameters();
+                }
+                bindParameters(st, Query, params);
+                if(expectingResult) {
+                    ResultSet set = st.executeQuery();
+                    openStatements.add(queryStatement);
+                    return set;
+                } else {
+                    int result = st.executeUpdate();
+
+                    // Only attempt to retrieve generated keys for INSERT statements
+                    if(isInsert) {
+                        try (ResultSet genKeys = st.getGeneratedKeys()) {
+                            if(genKeys != null && genKeys.next()) {
+                                return genKeys.getInt(1);  // Use column index for portability
+                            }
+                        } catch(SQLException ex) {
+                            // Failed to get generated key, fall through to return update count
                         }
-                    } catch(SQLException ex) {
-                        // Failed to get generated key, fall through to return update count
                     }
+                    return result;
+                }
+            } catch(SQLException ex) {
+                SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
+                if(pooled.inTransaction)
+                    pooled.transactionFailed = true;
+                if(queryStatement != null) {
+                    try {
+                        queryStatement.close();
+                    } catch (SQLException ignored) {
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Runs a query and reads every row while holding the connection, so the rows can not be
+     * changed by another query running at the same time
+     *
+     * @param Query SQL to run
+     * @param params Parameters by index, may be null
+     * @param reader Turns the current row of the result set into a value
+     * @return The values of all rows, or null if the query failed
+     */
+    public <T> List<T> runQuery(String Query, Map<Integer, Object> params, RowReader<T> reader) {
+        if(pooled == null) {
+            SignShop.log("Query: " + Query + " could not be run because the connection to: " + filename + " could not be established", Level.WARNING);
+            return null;
+        }
+
+        synchronized (pooled) {
+            try {
+                PreparedStatement st = pooled.prepare(Query, false);
+                st.clearParameters();
+                bindParameters(st, Query, params);
+                List<T> rows = new ArrayList<>();
+                try (ResultSet set = st.executeQuery()) {
+                    while(set.next())
+                        rows.add(reader.read(set));
                 }
-                return result;
+                return rows;
+            } catch(SQLException ex) {
+                SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
+                if(pooled.inTransaction)
+                    pooled.transactionFailed = true;
+                return null;
+            }
+        }
+    }
+
+    private static void bindParameters(PreparedStatement st, String Query, Map<Integer, Object> params) throws SQLException {
+        if(params == null || params.isEmpty())
+            return;
+        for(Map.Entry<Integer, Object> param : params.entrySet()) {
+            if (param.getValue() == null) {
+                SignShop.log("Query: " + Query + " with Key: "+param.getKey()+ " has null value. Setting the value to a String object of 'null'", Level.WARNING);
+                param.setValue("null");
+            }
+            if(param.getValue().getClass().equals(int.class) || param.getValue().getClass().equals(Integer.class)) {
+                st.setInt(param.getKey(), ((Integer)param.getValue()));
+            } else if(param.getValue().getClass().equals(long.class) || param.getValue().getClass().equals(Long.class)) {
+                st.setLong(param.getKey(), ((Long)param.getValue()));
+            } else if(param.getValue().getClass().equals(double.class) || param.getValue().getClass().equals(Double.class)) {
+                st.setDouble(param.getKey(), ((Double)param.getValue()));
+            } else if(param.getValue().getClass().equals(String.class)) {
+                st.setString(param.getKey(), ((String)param.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Reads one row of a result set, see {@link #runQuery}
+     */
+    public interface RowReader<T> {
+        T read(ResultSet set) throws SQLException;
+    }
+
+    /**
+     * A single JDBC connection to a database file with its prepared statement cache.
+     * All use is serialized on the instance monitor.
+     */
+    private static class PooledConnection {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        // Set by runInTransaction, a failing statement marks the transaction for rollback
+        private boolean inTransaction = false;
+        private boolean transactionFailed = false;
+
+        private PooledConnection(Connection conn) {
+            this.conn = conn;
+        }
+
+        private static PooledConnection connect(String filename) {
+            try {
+                File DBFile = new File(SignShop.getInstance().getDataFolder(), filename);
+                Connection conn = driver.connect("jdbc:sqlite:" + DBFile.getPath(), new Properties());
+                if (conn == null)
+                    return null;
+                try (Statement pragma = conn.createStatement()) {
+                    pragma.execute("PRAGMA journal_mode=WAL;");
+                    pragma.execute("PRAGMA synchronous=NORMAL;");
+                    pragma.execute("PRAGMA busy_timeout=5000;");
+                } catch (SQLException ex) {
+                    SignShop.log("Could not enable WAL mode for " + filename + " because: " + ex.getMessage(), Level.WARNING);
+                }
+                return new PooledConnection(conn);
+            } catch (SQLException ignored) {
+
             }
-        } catch(SQLException ex) {
-            SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
             return null;
         }
+
+        private synchronized boolean isValid() {
+            try {
+                return !conn.isClosed();
+            } catch (SQLException ex) {
+                return false;
+            }
+        }
+
+        private synchronized PreparedStatement prepare(String query, boolean returnKeys) throws SQLException {
+            PreparedStatement st = statements.get(query);
+            if (st == null || st.isClosed()) {
+                st = conn.prepareStatement(query, returnKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+                statements.put(query, st);
+            }
+            return st;
+        }
+
+        private synchronized void close() {
+            for (PreparedStatement st : statements.values()) {
+                try {
+                    st.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            statements.clear();
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,360 @@
+package org.wargamer2010.signshop.data;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.block.sign.Side;
+import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.util.PerfStats;
+import org.wargamer2010.signshop.util.economyUtil;
+import org.wargamer2010.signshop.util.signshopUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index from item type to the shops trading it, used by /signshop find.
+ *
+ * <p>{@link Storage} reports every shop it adds, changes or removes, so the index never has to scan
+ * all shops. Each shop is kept as an immutable {@link Listing} with its price and direction read from
+ * the sign when it is indexed. Only shops whose operation gives items to the player (buying) or takes
+ * items from the player (selling) are listed.</p>
+ *
+ * <p>Queries read an immutable snapshot per item type, which buckets the listings in square cells per
+ * world, so they can run on any thread. A snapshot is built on the first query after the shops of
+ * that item type changed. Nearest shops are found by searching the cells in rings around the player
+ * and stopping as soon as no cell further out can hold a closer shop.</p>
+ */
+public class ShopSearchIndex {
+    public enum Direction {
+        BUY, SELL
+    }
+
+    private static final int cellShift = 7; // 128 blocks
+    private static final Map<Location, Listing> listings = new ConcurrentHashMap<>();
+    private static final Map<Material, Set<Location>> byItem = new ConcurrentHashMap<>();
+    private static final Map<Material, Long> versions = new ConcurrentHashMap<>();
+    private static final Map<Material, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    static {
+        PerfStats.registerGauge("find.listings", listings::size);
+    }
+
+    private ShopSearchIndex() {
+
+    }
+
+    /**
+     * Lists the shop, replacing an earlier listing of the same sign. Reads the sign, so call this from
+     * the thread owning it.
+     *
+     * @param seller Shop to list
+     */
+    public static void add(Seller seller) {
+        Listing listing = createListing(seller);
+        Listing replaced = (listing == null ? listings.remove(seller.getSignLocation()) : listings.put(seller.getSignLocation(), listing));
+        if (replaced != null)
+            unindex(replaced);
+        if (listing != null)
+            index(listing);
+    }
+
+    /**
+     * @param signLocation Location of the sign of the shop to stop listing
+     */
+    public static void remove(Location signLocation) {
+        Listing removed = listings.remove(signLocation);
+        if (removed != null)
+            unindex(removed);
+    }
+
+    public static void clear() {
+        listings.clear();
+        byItem.clear();
+        snapshots.clear();
+        // Versions are kept so snapshots being built right now are not taken for current
+        versions.replaceAll((material, version) -> version + 1);
+    }
+
+    /**
+     * Finds the shops trading an item that are closest to a location
+     *
+     * @param material Item type to look for
+     * @param direction What the player wants to do, or null for both buying and selling
+     * @param world Name of the world to look in
+     * @param x X of the location to look from
+     * @param y Y of the location to look from
+     * @param z Z of the location to look from
+     * @param radius Largest distance to look at, 0 or less for the whole world
+     * @param limit Most results to return
+     * @return Closest shops first, shops at the same distance by best price per item
+     */
+    public static List<Result> findNearest(Material material, Direction direction, String world, double x, double y, double z, int radius, int limit) {
+        long start = PerfStats.start();
+        WorldCells cells = getSnapshot(material).worlds.get(world);
+        if (cells == null || limit <= 0) {
+            PerfStats.record("find.query", start);
+            return Collections.emptyList();
+        }
+
+        // Max-heap on distance, so the furthest of the closest shops found so far is dropped first
+        Comparator<Result> order = Comparator.comparingDouble((Result result) -> result.distance).thenComparingDouble(result -> result.sortPrice());
+        PriorityQueue<Result> closest = new PriorityQueue<>(order.reversed());
+        double maxDistanceSquared = (radius > 0 ? (double) radius * radius : Double.MAX_VALUE);
+        int centerX = ((int) Math.floor(x)) >> cellShift;
+        int centerZ = ((int) Math.floor(z)) >> cellShift;
+        int maxRing = Math.max(Math.max(centerX - cells.minX, cells.maxX - centerX), Math.max(centerZ - cells.minZ, cells.maxZ - centerZ));
+        if (radius > 0)
+            maxRing = Math.min(maxRing, (radius >> cellShift) + 1);
+
+        int ring = 0;
+        boolean done = false;
+        // Rings grow quadratically, once they cover more cells than hold shops it is cheaper to look at those cells
+        for (; ring <= maxRing && ((long) (ring * 2 + 1) * (ring * 2 + 1)) <= cells.cells.size() * 4L; ring++) {
+            for (int cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+                // Only the border of the ring, the inside was searched already
+                int step = ((cellX == centerX - ring || cellX == centerX + ring) ? 1 : ring * 2);
+                for (int cellZ = centerZ - ring; cellZ <= centerZ + ring; cellZ += step)
+                    collect(cells.cells.get(cellKey(cellX, cellZ)), material, direction, x, y, z, maxDistanceSquared, closest, limit);
+            }
+            // Every shop in a further ring is at least this far away
+            double nextRingDistance = (double) ring * (1 << cellShift);
+            if (closest.size() >= limit && closest.peek().distance <= nextRingDistance) {
+                done = true;
+                break;
+            }
+        }
+        if (!done && ring <= maxRing) {
+            for (Map.Entry<Long, Listing[]> cell : cells.cells.entrySet()) {
+                int cellX = (int) (cell.getKey() >> 32);
+                int cellZ = (int) (long) cell.getKey();
+                if (Math.max(Math.abs(cellX - centerX), Math.abs(cellZ - centerZ)) >= ring)
+                    collect(cell.getValue(), material, direction, x, y, z, maxDistanceSquared, closest, limit);
+            }
+        }
+
+        List<Result> results = new ArrayList<>(closest);
+        results.sort(order);
+        PerfStats.record("find.query", start);
+        return results;
+    }
+
+    private static void collect(Listing[] cell, Material material, Direction direction, double x, double y, double z, double maxDistanceSquared,
+                                PriorityQueue<Result> closest, int limit) {
+        if (cell == null)
+            return;
+        for (Listing listing : cell) {
+            if (direction != null && listing.direction != direction)
+                continue;
+            double dx = listing.x - x, dy = listing.y - y, dz = listing.z - z;
+            double distanceSquared = (dx * dx) + (dy * dy) + (dz * dz);
+            if (distanceSquared > maxDistanceSquared)
+                continue;
+            closest.add(new Result(listing, material, Math.sqrt(distanceSquared)));
+            if (closest.size() > limit)
+                closest.poll();
+        }
+    }
+
+    private static Listing createListing(Seller seller) {
+        Location location = seller.getSignLocation();
+        ItemStack[] items = seller.getItems(false);
+        if (location.getWorld() == null || items == null || items.length == 0)
+            return null;
+
+        String[] lines;
+        try {
+            Block block = seller.getSign();
+            BlockState state = (block == null ? null : block.getState());
+            if (!(state instanceof Sign))
+                return null;
+            lines = ((Sign) state).getSide(Side.FRONT).getLines();
+        } catch (RuntimeException ex) {
+            // The sign is owned by another region thread, it is listed once it is changed from its own
+            SignShop.getInstance().debugMessage("Could not read the sign of the shop at " + location + " for the search index: " + ex.getMessage());
+            return null;
+        }
+
+        String operation = signshopUtil.getOperation(lines[0]);
+        Direction direction = getDirection(operation);
+        if (direction == null)
+            return null;
+
+        Map<Material, Integer> amounts = new EnumMap<>(Material.class);
+        for (ItemStack item : items)
+            if (item != null && item.getType() != Material.AIR)
+                amounts.merge(item.getType(), item.getAmount(), Integer::sum);
+        if (amounts.isEmpty())
+            return null;
+
+        return new Listing(location, seller.getOwner().getName(), operation, direction, economyUtil.parsePrice(lines[3]), amounts);
+    }
+
+    /**
+     * @param operation Name of a sign type
+     * @return BUY if the operation gives items to the player, SELL if it takes them, null otherwise
+     */
+    public static Direction getDirection(String operation) {
+        for (String block : SignShop.getInstance().getSignShopConfig().getBlocks(operation)) {
+            if (block.startsWith("givePlayerItems"))
+                return Direction.BUY;
+            if (block.startsWith("takePlayerItems") || block.startsWith("takeVariablePlayerItems"))
+                return Direction.SELL;
+        }
+        return null;
+    }
+
+    private static void index(Listing listing) {
+        Location location = listing.location;
+        for (Material material : listing.amounts.keySet()) {
+            byItem.computeIfAbsent(material, k -> ConcurrentHashMap.newKeySet()).add(location);
+            changed(material);
+        }
+    }
+
+    private static void unindex(Listing listing) {
+        Location location = listing.location;
+        for (Material material : listing.amounts.keySet()) {
+            byItem.computeIfPresent(material, (k, signs) -> {
+                signs.remove(location);
+                return (signs.isEmpty() ? null : signs);
+            });
+            changed(material);
+        }
+    }
+
+    private static void changed(Material material) {
+        // Bumped after the change, so a snapshot started before it is never taken for current
+        versions.merge(material, 1L, Long::sum);
+        snapshots.remove(material);
+    }
+
+    private static Snapshot getSnapshot(Material material) {
+        long version = versions.getOrDefault(material, 0L);
+        Snapshot snapshot = snapshots.get(material);
+        if (snapshot != null && snapshot.version == version)
+            return snapshot;
+
+        long start = PerfStats.start();
+        Map<String, List<Listing>> byWorld = new HashMap<>();
+        for (Location location : byItem.getOrDefault(material, Collections.emptySet())) {
+            Listing listing = listings.get(location);
+            if (listing != null && listing.amounts.containsKey(material))
+                byWorld.computeIfAbsent(listing.world, k -> new ArrayList<>()).add(listing);
+        }
+        Map<String, WorldCells> worlds = new HashMap<>();
+        for (Map.Entry<String, List<Listing>> entry : byWorld.entrySet())
+            worlds.put(entry.getKey(), new WorldCells(entry.getValue()));
+        snapshot = new Snapshot(version, worlds);
+        if (versions.getOrDefault(material, 0L) == version)
+            snapshots.put(material, snapshot);
+        PerfStats.record("find.snapshot", start);
+        return snapshot;
+    }
+
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A shop as it was when it was indexed
+     */
+    public static class Listing {
+        private final Location location;
+        public final String world;
+        public final int x;
+        public final int y;
+        public final int z;
+        public final String ownerName;
+        public final String operation;
+        public final Direction direction;
+        public final double price;
+        private final Map<Material, Integer> amounts;
+
+        private Listing(Location location, String ownerName, String operation, Direction direction, double price, Map<Material, Integer> amounts) {
+            this.location = location.clone();
+            this.world = location.getWorld().getName();
+            this.x = location.getBlockX();
+            this.y = location.getBlockY();
+            this.z = location.getBlockZ();
+            this.ownerName = ownerName;
+            this.operation = operation;
+            this.direction = direction;
+            this.price = price;
+            this.amounts = Collections.unmodifiableMap(amounts);
+        }
+
+        /**
+         * @return Items of the shop by type
+         */
+        public Map<Material, Integer> getAmounts() {
+            return amounts;
+        }
+    }
+
+    public static class Result {
+        public final Listing listing;
+        public final double distance;
+        public final int amount;
+        public final double pricePerItem;
+
+        private Result(Listing listing, Material material, double distance) {
+            this.listing = listing;
+            this.distance = distance;
+            this.amount = listing.amounts.get(material);
+            this.pricePerItem = (listing.price / amount);
+        }
+
+        /**
+         * @return Price per item ordered from best to worst for the player
+         */
+        private double sortPrice() {
+            return (listing.direction == Direction.BUY ? pricePerItem : -pricePerItem);
+        }
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final Map<String, WorldCells> worlds;
+
+        private Snapshot(long version, Map<String, WorldCells> worlds) {
+            this.version = version;
+            this.worlds = worlds;
+        }
+    }
+
+    private static class WorldCells {
+        private final Map<Long, Listing[]> cells = new HashMap<>();
+        private int minX = Integer.MAX_VALUE;
+        private int minZ = Integer.MAX_VALUE;
+        private int maxX = Integer.MIN_VALUE;
+        private int maxZ = Integer.MIN_VALUE;
+
+        private WorldCells(List<Listing> listings) {
+            Map<Long, List<Listing>> building = new HashMap<>();
+            for (Listing listing : listings) {
+                int cellX = listing.x >> cellShift;
+                int cellZ = listing.z >> cellShift;
+                minX = Math.min(minX, cellX);
+                minZ = Math.min(minZ, cellZ);
+                maxX = Math.max(maxX, cellX);
+                maxZ = Math.max(maxZ, cellZ);
+                building.computeIfAbsent(cellKey(cellX, cellZ), k -> new ArrayList<>()).add(listing);
+            }
+            for (Map.Entry<Long, List<Listing>> entry : building.entrySet())
+                cells.put(entry.getKey(), entry.getValue().toArray(new Listing[0]));
+        }
+    }
+}
@@ -5,10 +5,16 @@ import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Base64;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 /**
@@ -17,10 +23,16 @@ import java.util.logging.Level;
  * <p>Stores and retrieves written book data in a SQLite database (books.db).
  * This allows shops selling written books to preserve their content across
  * server restarts without storing large text in sellers.yml.</p>
+ *
+ * <p>Books are looked up through an in-memory index from a SHA-256 digest of their contents
+ * to BookID, loaded by {@link #init()}. New books are inserted in batches by
+ * {@link BooksDatabaseQueue}.</p>
  */
 public class SignShopBooks {
     private static final char pageSeperator = (char)3;
     private static final String filename = "books.db";
+    private static final Map<String, Integer> idsByDigest = new ConcurrentHashMap<>();
+    private static final Set<String> pendingDigests = ConcurrentHashMap.newKeySet();
 
     private SignShopBooks() {
 
@@ -38,32 +50,90 @@ public class SignShopBooks {
             db.runStatement("ALTER TABLE Book ADD COLUMN Generation INTEGER NOT NULL DEFAULT -1;", null, false);
             db.close();
         }
+        loadIndex();
     }
 
-    public static void addBook(ItemStack bookStack) {
-        Integer tempID = getBookID(bookStack);
-        if(tempID > -1)
-            return;
-
+    private static void loadIndex() {
+        idsByDigest.clear();
         SSDatabase db = new SSDatabase(filename);
-        IBookItem item = BookFactory.getBookItem(bookStack);
+        try {
+            ResultSet set = (ResultSet) db.runStatement("SELECT BookID, Title, Author, Pages, Generation FROM Book ORDER BY BookID;", null, true);
+            if (set == null)
+                return;
+            while (set.next()) {
+                String digest = getDigest(set.getString("Title"), set.getString("Author"), set.getString("Pages"), set.getInt("Generation"));
+                idsByDigest.putIfAbsent(digest, set.getInt("BookID"));
+            }
+        } catch (SQLException ex) {
+            SignShop.log("Could not load the Book index because: " + ex.getMessage(), Level.WARNING);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static String getDigest(String title, String author, String pages, int generation) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[] { title, author, pages, Integer.toString(generation) }) {
+                digest.update((part == null ? "" : part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JRE ships SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Map<Integer, Object> getBookParams(IBookItem item) {
         Map<Integer, Object> pars = new LinkedHashMap<>();
         pars.put(1, (item.getTitle() == null) ? "" : item.getTitle());
         pars.put(2, (item.getAuthor() == null) ? "" : item.getAuthor());
         pars.put(3, signshopUtil.implode(item.getPages(), String.valueOf(pageSeperator)));
         Integer gen = item.getGeneration();
         pars.put(4, gen == null ? -1 : gen);
+        return pars;
+    }
 
+    private static String getDigest(Map<Integer, Object> bookParams) {
+        return getDigest((String) bookParams.get(1), (String) bookParams.get(2), (String) bookParams.get(3), (Integer) bookParams.get(4));
+    }
 
-        try {
-            Integer ID = (Integer) db.runStatement("INSERT INTO Book(Title, Author, Pages, Generation) VALUES (?, ?, ?, ?);", pars, false);
-        } finally {
-            db.close();
+    public static void addBook(ItemStack bookStack) {
+        if(!itemUtil.isWriteableBook(bookStack))
+            return;
+
+        Map<Integer, Object> pars = getBookParams(BookFactory.getBookItem(bookStack));
+        String digest = getDigest(pars);
+        if(idsByDigest.containsKey(digest) || !pendingDigests.add(digest))
+            return;
+        if(idsByDigest.containsKey(digest)) {
+            // Written by a batch that finished in between
+            pendingDigests.remove(digest);
+            return;
         }
 
+        BooksDatabaseQueue.queue(new BooksDatabaseQueue.QueuedWrite() {
+            private Integer ID = null;
+
+            @Override
+            public void write(SSDatabase db) {
+                ID = (Integer) db.runStatement("INSERT INTO Book(Title, Author, Pages, Generation) VALUES (?, ?, ?, ?);", pars, false);
+            }
+
+            @Override
+            public void done(boolean committed) {
+                if(committed && ID != null && ID != -1)
+                    idsByDigest.putIfAbsent(digest, ID);
+                pendingDigests.remove(digest);
+            }
+        });
     }
 
     public static void removeBook(Integer id) {
+        BooksDatabaseQueue.flush();
+        idsByDigest.values().removeIf(id::equals);
+
         SSDatabase db = new SSDatabase(filename);
         Map<Integer, Object> pars = new LinkedHashMap<>();
         pars.put(1, id);
@@ -78,32 +148,10 @@ public class SignShopBooks {
         if(!itemUtil.isWriteableBook(bookStack))
             return -1;
 
-        SSDatabase db = new SSDatabase(filename);
-        IBookItem item = BookFactory.getBookItem(bookStack);
-        Map<Integer, Object> pars = new LinkedHashMap<>();
-        pars.put(1, (item.getTitle() == null) ? "" : item.getTitle());
-        pars.put(2, (item.getAuthor() == null) ? "" : item.getAuthor());
-        pars.put(3, signshopUtil.implode(item.getPages(), String.valueOf(pageSeperator)));
-        Integer gen = item.getGeneration();
-        pars.put(4, gen == null ? -1 : gen);
-        Integer ID = null;
-
-        try {
-            ResultSet set = (ResultSet)db.runStatement("SELECT BookID FROM Book WHERE Title = ? AND Author = ? AND Pages = ? AND Generation = ?;", pars, true);
-            if(set != null && set.next())
-                ID = set.getInt("BookID");
-            else
-                ID = -1;
-        } catch (SQLException ex) {
-            SignShop.log("BookID was not found in result from SELECT query.", Level.WARNING);
-        } finally {
-            db.close();
-        }
-
-        if(ID == null)
-            return -1;
-        else
-            return ID;
+        String digest = getDigest(getBookParams(BookFactory.getBookItem(bookStack)));
+        if(pendingDigests.contains(digest))
+            BooksDatabaseQueue.flush();
+        return idsByDigest.getOrDefault(digest, -1);
     }
 
     public static ItemStack addBooksProps(ItemStack bookStack, Integer id) {
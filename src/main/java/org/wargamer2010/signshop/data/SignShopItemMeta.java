@@ -23,6 +23,8 @@ import org.wargamer2010.signshop.util.signshopUtil;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 
 /**
  * Persistence layer for complex item metadata in SignShop.
@@ -30,12 +32,18 @@ import java.util.*;
  * <p>Stores and retrieves advanced item metadata that may be lost during
  * standard serialization, including enchantments, potion effects, firework
  * properties, leather armor colors, and shulker box contents.</p>
+ *
+ * <p>The hash to ItemMetaID mapping is kept in memory, loaded once by {@link #init()}, so
+ * looking up or storing meta doesn't query books.db. New rows are written in batches by
+ * {@link BooksDatabaseQueue}.</p>
  */
 public class SignShopItemMeta {
     private static final String listSeperator = "~";
     private static final String valueSeperator = "-";
     private static final String innerListSeperator = "^";
     private static final String filename = "books.db";
+    private static final Map<Integer, Integer> idsByHash = new ConcurrentHashMap<>();
+    private static final Set<Integer> pendingHashes = ConcurrentHashMap.newKeySet();
 
     
     private SignShopItemMeta() {
@@ -49,11 +57,26 @@ public class SignShopItemMeta {
                 db.runStatement("CREATE TABLE ItemMeta ( ItemMetaID INTEGER, ItemMetaHash INT, PRIMARY KEY(ItemMetaID) )", null, false);
             if (!db.tableExists("MetaProperty"))
                 db.runStatement("CREATE TABLE MetaProperty ( PropertyID INTEGER, ItemMetaID INTEGER, PropertyName TEXT NOT NULL, ProperyValue TEXT NOT NULL, PRIMARY KEY(PropertyID) )", null, false);
+            loadIndex(db);
         } finally {
             db.close();
         }
     }
 
+    private static void loadIndex(SSDatabase db) {
+        idsByHash.clear();
+        ResultSet set = (ResultSet) db.runStatement("SELECT ItemMetaID, ItemMetaHash FROM ItemMeta ORDER BY ItemMetaID;", null, true);
+        if (set == null)
+            return;
+        try {
+            // Older versions could store a hash more than once, the lookup always returned the first
+            while (set.next())
+                idsByHash.putIfAbsent(set.getInt("ItemMetaHash"), set.getInt("ItemMetaID"));
+        } catch (SQLException ex) {
+            SignShop.log("Could not load the ItemMeta index because: " + ex.getMessage(), Level.WARNING);
+        }
+    }
+
     public static String convertColorsToDisplay(List<Color> colors) {
         if(colors == null || colors.isEmpty())
             return "";
@@ -436,59 +459,54 @@ public class SignShopItemMeta {
         if (hasNoMeta(stack))
             return;
 
-        SSDatabase db = new SSDatabase(filename);
         Map<String, String> metamap = getMetaAsMap(stack.getItemMeta());
+        Integer hash = metamap.hashCode();
+        if (idsByHash.containsKey(hash) || !pendingHashes.add(hash))
+            return;
+        if (idsByHash.containsKey(hash)) {
+            // Written by a batch that finished in between
+            pendingHashes.remove(hash);
+            return;
+        }
 
-        try {
-            Integer existingID = getMetaID(stack, metamap);
-            if(existingID > -1)
-                return;
-
-            Integer itemmetaid;
-            Map<Integer, Object> pars = new LinkedHashMap<>();
-            pars.put(1, metamap.hashCode());
+        BooksDatabaseQueue.queue(new BooksDatabaseQueue.QueuedWrite() {
+            private Integer itemmetaid = null;
 
-            itemmetaid = (Integer)db.runStatement("INSERT INTO ItemMeta(ItemMetaHash) VALUES (?);", pars, false);
+            @Override
+            public void write(SSDatabase db) {
+                Map<Integer, Object> pars = new LinkedHashMap<>();
+                pars.put(1, hash);
+                itemmetaid = (Integer)db.runStatement("INSERT INTO ItemMeta(ItemMetaHash) VALUES (?);", pars, false);
 
-            if(itemmetaid == null || itemmetaid == -1)
-                return;
+                if(itemmetaid == null || itemmetaid == -1)
+                    return;
 
-            for(Map.Entry<String, String> metaproperty : metamap.entrySet()) {
-                pars.clear();
-                pars.put(1, itemmetaid);
-                pars.put(2, metaproperty.getKey());
-                pars.put(3, metaproperty.getValue());
-                db.runStatement("INSERT INTO MetaProperty(ItemMetaID, PropertyName, ProperyValue) VALUES (?, ?, ?);", pars, false);
+                for(Map.Entry<String, String> metaproperty : metamap.entrySet()) {
+                    pars.clear();
+                    pars.put(1, itemmetaid);
+                    pars.put(2, metaproperty.getKey());
+                    pars.put(3, metaproperty.getValue());
+                    db.runStatement("INSERT INTO MetaProperty(ItemMetaID, PropertyName, ProperyValue) VALUES (?, ?, ?);", pars, false);
+                }
             }
 
-        } finally {
-            db.close();
-        }
+            @Override
+            public void done(boolean committed) {
+                if (committed && itemmetaid != null && itemmetaid != -1)
+                    idsByHash.putIfAbsent(hash, itemmetaid);
+                pendingHashes.remove(hash);
+            }
+        });
     }
 
     public static Integer getMetaID(ItemStack stack) {
         if (hasNoMeta(stack))
             return -1;
 
-        return getMetaID(stack, null);
-    }
-
-    private static Integer getMetaID(ItemStack stack, Map<String, String> pMetamap) {
-        Map<String, String> metamap = (pMetamap != null ? pMetamap : getMetaAsMap(stack.getItemMeta()));
-        SSDatabase db = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> pars = new LinkedHashMap<>();
-            pars.put(1, metamap.hashCode());
-            ResultSet set = (ResultSet)db.runStatement("SELECT ItemMetaID FROM ItemMeta WHERE ItemMetaHash = ?;", pars, true);
-            if(set != null && set.next())
-                return set.getInt("ItemMetaID");
-        } catch (SQLException ignored) {
-
-        } finally {
-            db.close();
-        }
-
-        return -1;
+        Integer hash = getMetaAsMap(stack.getItemMeta()).hashCode();
+        if (pendingHashes.contains(hash))
+            BooksDatabaseQueue.flush();
+        return idsByHash.getOrDefault(hash, -1);
     }
 
     public static Map<String, String> getMetaAsMap(ItemMeta meta) {
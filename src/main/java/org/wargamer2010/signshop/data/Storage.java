@@ -1,6 +1,7 @@
 package org.wargamer2010.signshop.data;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -20,12 +21,15 @@ import org.wargamer2010.signshop.configuration.FileSaveWorker;
 import org.wargamer2010.signshop.configuration.configUtil;
 import org.wargamer2010.signshop.player.PlayerIdentifier;
 import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.ChunkKey;
+import org.wargamer2010.signshop.util.PerfStats;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 
@@ -51,7 +55,8 @@ import java.util.logging.Level;
  *   <li><b>Deferred Loading:</b> Shops in unloaded worlds are automatically loaded when the world loads via {@link WorldLoadEvent}</li>
  *   <li><b>Async File Saving:</b> Uses {@link FileSaveWorker} to save sellers.yml asynchronously, preventing main thread blocking</li>
  *   <li><b>Validation:</b> On startup, validates all shops (sign exists, world loaded, etc.) and removes invalid ones with backups</li>
- *   <li><b>Thread Safety:</b> Shop data (sellers map) is accessed on main thread. File I/O is async via FileSaveWorker.</li>
+ *   <li><b>Thread Safety:</b> The shop registry and its block index are concurrent maps so they can be read and
+ *   updated from several region threads on Folia. File I/O is async via FileSaveWorker.</li>
  * </ul>
  *
  * <h2>Deferred Loading System:</h2>
@@ -63,7 +68,9 @@ import java.util.logging.Level;
  *
  * <h2>Threading Considerations:</h2>
  * <ul>
- *   <li>All shop data access (add, remove, get) happens on the main thread</li>
+ *   <li>Shop data access (add, remove, get) happens on the thread owning the sign, which is the main thread
+ *   on Bukkit and the sign's region thread on Folia. Transactions on a shop with linked blocks in another
+ *   region are refused, see {@link org.wargamer2010.signshop.scheduling.SchedulerAdapter#isOwnedByCurrentRegion(java.util.List)}</li>
  *   <li>{@link #Save()} serializes shop data on main thread, then queues async file write</li>
  *   <li>{@link FileSaveWorker} runs on async thread and handles actual disk I/O</li>
  * </ul>
@@ -79,17 +86,20 @@ public class Storage implements Listener {
     private static FileSaveWorker fileSaveWorker;
 
     private static Storage instance = null;
-    private static int taskId = 0;
 
     private static Map<Location,Seller> sellers;
+    // Linked block location -> sign locations of the shops using it, see getShopsByBlock
+    private static final Map<Location, Set<Location>> containableIndex = new ConcurrentHashMap<>();
+    private static final Map<Location, Set<Location>> activatableIndex = new ConcurrentHashMap<>();
+    private static final Map<ChunkKey, Set<Location>> signChunkIndex = new ConcurrentHashMap<>();
+    private static final Map<ChunkKey, Set<Location>> shopChunkIndex = new ConcurrentHashMap<>();
     private static final String itemSeperator = "&";
 
-    private final Map<String, HashMap<String, List<String>>> invalidShops = new LinkedHashMap<>();
-    private final Map<String, HashMap<String, List<String>>> deferredSellers = new LinkedHashMap<>();
+    private final Map<String, HashMap<String, List<String>>> invalidShops = new ConcurrentHashMap<>();
+    private final Map<String, HashMap<String, List<String>>> deferredSellers = new ConcurrentHashMap<>();
 
     private Storage(File ymlFile) {
         fileSaveWorker = new FileSaveWorker(ymlFile);
-        taskId = fileSaveWorker.start().getTaskId();
         if(!ymlFile.exists()) {
             try {
                 ymlFile.createNewFile();
@@ -99,7 +109,12 @@ public class Storage implements Listener {
             }
         }
         ymlfile = ymlFile;
-        sellers = new HashMap<>();
+        sellers = new ConcurrentHashMap<>();
+        containableIndex.clear();
+        activatableIndex.clear();
+        signChunkIndex.clear();
+        shopChunkIndex.clear();
+        ShopSearchIndex.clear();
 
         // Load into memory, this also removes invalid signs (hence the backup)
         Boolean needToSave = Load();
@@ -345,6 +360,17 @@ public class Storage implements Listener {
     }
 
     public final void Save() {
+        long start = PerfStats.start();
+        FileConfiguration config = toConfiguration();
+        // We can not run the logic above async, but we can save to disc on another thread
+        fileSaveWorker.queueSave(config);
+        PerfStats.record("storage.save", start);
+    }
+
+    /**
+     * @return The contents of sellers.yml as they would be saved now
+     */
+    public FileConfiguration toConfiguration() {
         Map<String, Object> tempSellers = new HashMap<>();
         FileConfiguration config = new YamlConfiguration();
 
@@ -361,8 +387,7 @@ public class Storage implements Listener {
         config.set("deferred_sellers", deferredSellers);
         config.set("invalid_sellers",invalidShops);
         config.set("DataVersion",SignShop.DATA_VERSION);
-        // We can not run the logic above async, but we can save to disc on another thread
-        fileSaveWorker.queueSave(config);
+        return config;
     }
 
     public void addSeller(PlayerIdentifier playerId, String sWorld, Block bSign, List<Block> containables, List<Block> activatables, ItemStack[] isItems, Map<String, String> misc) {
@@ -370,7 +395,11 @@ public class Storage implements Listener {
     }
 
     public void addSeller(PlayerIdentifier playerId, String sWorld, Block bSign, List<Block> containables, List<Block> activatables, ItemStack[] isItems, Map<String, String> misc, Boolean save) {
-        Storage.sellers.put(bSign.getLocation(), new Seller(playerId, sWorld, containables, activatables, isItems, bSign.getLocation(), misc, save));
+        Seller seller = new Seller(playerId, sWorld, containables, activatables, isItems, bSign.getLocation(), misc, save);
+        Seller replaced = Storage.sellers.put(bSign.getLocation(), seller);
+        if(replaced != null)
+            unindexSeller(replaced);
+        indexSeller(seller);
         if(save) {
             this.Save();
         }
@@ -378,29 +407,109 @@ public class Storage implements Listener {
 
     public void updateSeller(Block bSign, List<Block> containables, List<Block> activatables) {
         Seller seller = Storage.sellers.get(bSign.getLocation());
-        seller.setActivatables(activatables);
-        seller.setContainables(containables);
+        reindexSeller(seller, () -> {
+            seller.setActivatables(activatables);
+            seller.setContainables(containables);
+        });
     }
 
     public void updateSeller(Block bSign, List<Block> containables, List<Block> activatables, ItemStack[] isItems) {
         Seller seller = Storage.sellers.get(bSign.getLocation());
-        seller.setActivatables(activatables);
-        seller.setContainables(containables);
-        seller.setItems(isItems);
+        reindexSeller(seller, () -> {
+            seller.setActivatables(activatables);
+            seller.setContainables(containables);
+            seller.setItems(isItems);
+        });
     }
 
     public void updateSeller(Block bSign, List<Block> containables, List<Block> activatables, ItemStack[] isItems, Map<String, String> miscSettings) {
         Seller seller = Storage.sellers.get(bSign.getLocation());
-        seller.setActivatables(activatables);
-        seller.setContainables(containables);
-        seller.setItems(isItems);
-        seller.setMiscSettings(miscSettings);
+        reindexSeller(seller, () -> {
+            seller.setActivatables(activatables);
+            seller.setContainables(containables);
+            seller.setItems(isItems);
+            seller.setMiscSettings(miscSettings);
+        });
+    }
+
+    /**
+     * Applies the change to the seller and moves its index entries along. The new blocks are indexed
+     * before the ones it no longer uses are dropped, so a lookup from another region thread in between
+     * still finds the shop on blocks that belong to it both before and after.
+     */
+    private static void reindexSeller(Seller seller, Runnable change) {
+        Location sign = seller.getSignLocation();
+        Set<Location> oldContainables = getLocations(seller.getContainables());
+        Set<Location> oldActivatables = getLocations(seller.getActivatables());
+        Set<ChunkKey> oldChunks = getShopChunks(seller);
+
+        change.run();
+        indexSeller(seller);
+
+        oldContainables.removeAll(getLocations(seller.getContainables()));
+        for(Location location : oldContainables)
+            unindexBlock(containableIndex, location, sign);
+        oldActivatables.removeAll(getLocations(seller.getActivatables()));
+        for(Location location : oldActivatables)
+            unindexBlock(activatableIndex, location, sign);
+        oldChunks.removeAll(getShopChunks(seller));
+        for(ChunkKey chunk : oldChunks)
+            unindexBlock(shopChunkIndex, chunk, sign);
+    }
+
+    private static Set<Location> getLocations(List<Block> blocks) {
+        Set<Location> locations = new HashSet<>();
+        for(Block block : blocks)
+            locations.add(block.getLocation());
+        return locations;
+    }
+
+    private static void indexSeller(Seller seller) {
+        for(Block block : seller.getContainables())
+            containableIndex.computeIfAbsent(block.getLocation(), k -> ConcurrentHashMap.newKeySet()).add(seller.getSignLocation());
+        for(Block block : seller.getActivatables())
+            activatableIndex.computeIfAbsent(block.getLocation(), k -> ConcurrentHashMap.newKeySet()).add(seller.getSignLocation());
+        signChunkIndex.computeIfAbsent(ChunkKey.of(seller.getSignLocation()), k -> ConcurrentHashMap.newKeySet()).add(seller.getSignLocation());
+        for(ChunkKey chunk : getShopChunks(seller))
+            shopChunkIndex.computeIfAbsent(chunk, k -> ConcurrentHashMap.newKeySet()).add(seller.getSignLocation());
+        ShopSearchIndex.add(seller);
+    }
+
+    private static void unindexSeller(Seller seller) {
+        for(Block block : seller.getContainables())
+            unindexBlock(containableIndex, block.getLocation(), seller.getSignLocation());
+        for(Block block : seller.getActivatables())
+            unindexBlock(activatableIndex, block.getLocation(), seller.getSignLocation());
+        unindexBlock(signChunkIndex, ChunkKey.of(seller.getSignLocation()), seller.getSignLocation());
+        for(ChunkKey chunk : getShopChunks(seller))
+            unindexBlock(shopChunkIndex, chunk, seller.getSignLocation());
+        ShopSearchIndex.remove(seller.getSignLocation());
+    }
+
+    /**
+     * @return The chunks holding the sign or any linked block of the shop
+     */
+    private static Set<ChunkKey> getShopChunks(Seller seller) {
+        Set<ChunkKey> chunks = new HashSet<>();
+        chunks.add(ChunkKey.of(seller.getSignLocation()));
+        for(Block block : seller.getContainables())
+            chunks.add(ChunkKey.of(block));
+        for(Block block : seller.getActivatables())
+            chunks.add(ChunkKey.of(block));
+        return chunks;
+    }
+
+    private static <K> void unindexBlock(Map<K, Set<Location>> index, K key, Location sign) {
+        index.computeIfPresent(key, (k, signs) -> {
+            signs.remove(sign);
+            return (signs.isEmpty() ? null : signs);
+        });
     }
 
     public Seller getSeller(Location lKey){
-        if(Storage.sellers.containsKey(lKey))
-            return Storage.sellers.get(lKey);
-        return null;
+        if(lKey == null)
+            return null;
+        return Storage.sellers.get(lKey);
     }
 
     public Collection<Seller> getSellers() {
@@ -419,8 +528,11 @@ public class Storage implements Listener {
     }
 
     public void removeSeller(Location lKey) {
-        if(Storage.sellers.containsKey(lKey)){
-            Storage.sellers.remove(lKey);
+        if(lKey == null)
+            return;
+        Seller removed = Storage.sellers.remove(lKey);
+        if(removed != null) {
+            unindexSeller(removed);
             this.Save();
         }
     }
@@ -445,20 +557,75 @@ public class Storage implements Listener {
 
     public List<Block> getSignsFromHolder(Block bHolder) {
         List<Block> signs = new LinkedList<>();
-        for(Map.Entry<Location, Seller> entry : sellers.entrySet())
-            if(entry.getValue().getContainables().contains(bHolder))
-                signs.add(Bukkit.getServer().getWorld(entry.getValue().getWorld()).getBlockAt(entry.getKey()));
+        for(Location signLocation : containableIndex.getOrDefault(bHolder.getLocation(), Collections.emptySet())) {
+            Seller seller = sellers.get(signLocation);
+            if(seller != null)
+                signs.add(Bukkit.getServer().getWorld(seller.getWorld()).getBlockAt(signLocation));
+        }
         return signs;
     }
 
     public List<Seller> getShopsByBlock(Block bBlock) {
+        Location location = bBlock.getLocation();
+        Set<Location> signLocations = new LinkedHashSet<>(activatableIndex.getOrDefault(location, Collections.emptySet()));
+        signLocations.addAll(containableIndex.getOrDefault(location, Collections.emptySet()));
+
         List<Seller> tempsellers = new LinkedList<>();
-        for(Map.Entry<Location, Seller> entry : sellers.entrySet())
-            if(entry.getValue().getActivatables().contains(bBlock) || entry.getValue().getContainables().contains(bBlock))
-                tempsellers.add(entry.getValue());
+        for(Location signLocation : signLocations) {
+            Seller seller = sellers.get(signLocation);
+            if(seller != null)
+                tempsellers.add(seller);
+        }
         return tempsellers;
     }
 
+    /**
+     * @param chunk Chunk to look in
+     * @return Shops whose sign is in the given chunk
+     */
+    public List<Seller> getShopsInChunk(Chunk chunk) {
+        return getShopsInChunk(new ChunkKey(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ()));
+    }
+
+    /**
+     * @param key Chunk to look in, it does not have to be loaded
+     * @return Shops whose sign is in the given chunk
+     */
+    public List<Seller> getShopsInChunk(ChunkKey key) {
+        List<Seller> tempsellers = new LinkedList<>();
+        for(Location signLocation : signChunkIndex.getOrDefault(key, Collections.emptySet())) {
+            Seller seller = sellers.get(signLocation);
+            if(seller != null)
+                tempsellers.add(seller);
+        }
+        return tempsellers;
+    }
+
+    /**
+     * Finds the shops that have their sign or a linked block in the given chunk range.
+     * Only the chunks in the range are looked at, not every shop.
+     *
+     * @param world World to look in
+     * @param minChunkX Lowest chunk X, inclusive
+     * @param minChunkZ Lowest chunk Z, inclusive
+     * @param maxChunkX Highest chunk X, inclusive
+     * @param maxChunkZ Highest chunk Z, inclusive
+     * @return Shops that may have blocks in the range
+     */
+    public Set<Seller> getShopsInChunkRange(World world, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        Set<Seller> found = new LinkedHashSet<>();
+        for(int x = minChunkX; x <= maxChunkX; x++) {
+            for(int z = minChunkZ; z <= maxChunkZ; z++) {
+                for(Location signLocation : shopChunkIndex.getOrDefault(new ChunkKey(world.getUID(), x, z), Collections.emptySet())) {
+                    Seller seller = sellers.get(signLocation);
+                    if(seller != null)
+                        found.add(seller);
+                }
+            }
+        }
+        return found;
+    }
+
     public List<Block> getShopsWithMiscSetting(String key, String value) {
         List<Block> shops = new LinkedList<>();
         for(Map.Entry<Location, Seller> entry : sellers.entrySet()) {
@@ -0,0 +1,376 @@
+package org.wargamer2010.signshop.data;
+
+import org.bukkit.Location;
+import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.scheduling.SchedulerAdapter;
+import org.wargamer2010.signshop.util.PerfStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Queryable history of shop transactions, stored in transactions.db.
+ *
+ * <p>Transactions are snapshotted on the thread running them and inserted in batches by an async
+ * task, one SQLite transaction per batch, in the same way {@link BooksDatabaseQueue} handles books.
+ * Each transaction is a row in ShopTransaction with one ShopTransactionItem row per item type.
+ * Both tables are indexed for the lookups done by /signshop history: by shop location, owner,
+ * customer and item type, each ordered by time.</p>
+ *
+ * <p>Rows older than the configured retention are deleted by an hourly async task.</p>
+ */
+public class TransactionHistory {
+    private static final String filename = "transactions.db";
+    private static final long flushDelayTicks = 100;
+    private static final long pruneIntervalTicks = 20 * 60 * 60;
+    private static final String rowColumns = "t.TransactionID, t.Time, t.World, t.X, t.Y, t.Z, t.OwnerName, t.CustomerName, t.Operation, t.Price, "
+            + "(SELECT GROUP_CONCAT(i.Amount || ' ' || i.ItemType, ', ') FROM ShopTransactionItem i WHERE i.TransactionID = t.TransactionID) AS Items";
+    private static final List<Entry> queue = new ArrayList<>();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private static final Object flushLock = new Object();
+    private static SchedulerAdapter.ScheduledTask pruneTask = null;
+    private static volatile boolean enabled = false;
+
+    private TransactionHistory() {
+
+    }
+
+    /**
+     * Creates the tables and indexes if needed and starts pruning rows older than the retention
+     *
+     * @param retentionDays Days to keep transactions for, 0 or less to keep them forever
+     */
+    public static void init(int retentionDays) {
+        SSDatabase db = new SSDatabase(filename);
+        try {
+            if (!db.tableExists("ShopTransaction"))
+                db.runStatement("CREATE TABLE ShopTransaction ( TransactionID INTEGER, Time INTEGER NOT NULL, World TEXT NOT NULL, X INTEGER NOT NULL, "
+                        + "Y INTEGER NOT NULL, Z INTEGER NOT NULL, Owner TEXT NOT NULL, OwnerName TEXT NOT NULL, Customer TEXT NOT NULL, "
+                        + "CustomerName TEXT NOT NULL, Operation TEXT NOT NULL, Price REAL NOT NULL, PRIMARY KEY(TransactionID) )", null, false);
+            if (!db.tableExists("ShopTransactionItem"))
+                db.runStatement("CREATE TABLE ShopTransactionItem ( TransactionID INTEGER NOT NULL, ItemType TEXT NOT NULL, Amount INTEGER NOT NULL )", null, false);
+            db.runStatement("CREATE INDEX IF NOT EXISTS ShopTransaction_Shop ON ShopTransaction(World, X, Y, Z, Time)", null, false);
+            db.runStatement("CREATE INDEX IF NOT EXISTS ShopTransaction_Owner ON ShopTransaction(Owner, Time)", null, false);
+            db.runStatement("CREATE INDEX IF NOT EXISTS ShopTransaction_Customer ON ShopTransaction(Customer, Time)", null, false);
+            db.runStatement("CREATE INDEX IF NOT EXISTS ShopTransaction_Time ON ShopTransaction(Time)", null, false);
+            db.runStatement("CREATE INDEX IF NOT EXISTS ShopTransactionItem_Type ON ShopTransactionItem(ItemType, TransactionID)", null, false);
+            db.runStatement("CREATE INDEX IF NOT EXISTS ShopTransactionItem_Transaction ON ShopTransactionItem(TransactionID)", null, false);
+        } finally {
+            db.close();
+        }
+
+        if (pruneTask != null)
+            pruneTask.cancel();
+        pruneTask = null;
+        if (retentionDays > 0) {
+            long retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+            pruneTask = SignShop.getScheduler().runAsyncTimer(() -> prune(System.currentTimeMillis() - retentionMillis), 20 * 60, pruneIntervalTicks);
+        }
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a transaction to be stored. Must be called from the thread running the transaction.
+     *
+     * @param customer Player using the shop
+     * @param seller The shop
+     * @param operation Operation of the shop
+     * @param items Items that changed hands, may be null
+     * @param price Price of the transaction
+     */
+    public static void record(SignShopPlayer customer, Seller seller, String operation, ItemStack[] items, double price) {
+        if (!enabled)
+            return;
+        Entry entry = new Entry(customer, seller, operation, items, price);
+        synchronized (queue) {
+            queue.add(entry);
+        }
+        if (flushScheduled.compareAndSet(false, true))
+            SignShop.getScheduler().runAsyncLater(() -> {
+                flushScheduled.set(false);
+                flush();
+            }, flushDelayTicks);
+    }
+
+    /**
+     * Writes all queued transactions in a single SQLite transaction, on the calling thread
+     */
+    public static void flush() {
+        synchronized (flushLock) {
+            List<Entry> entries;
+            synchronized (queue) {
+                if (queue.isEmpty())
+                    return;
+                entries = new ArrayList<>(queue);
+                queue.clear();
+            }
+
+            long start = PerfStats.start();
+            SSDatabase db = new SSDatabase(filename);
+            boolean committed;
+            try {
+                committed = db.runInTransaction(() -> {
+                    for (Entry entry : entries)
+                        entry.insert(db);
+                });
+            } finally {
+                db.close();
+            }
+            if (!committed)
+                SignShop.log("Could not write " + entries.size() + " transaction(s) to " + filename, Level.WARNING);
+            PerfStats.record("history.flush", start);
+        }
+    }
+
+    /**
+     * Writes what is still queued and stops pruning
+     */
+    public static void shutdown() {
+        if (pruneTask != null)
+            pruneTask.cancel();
+        pruneTask = null;
+        flush();
+        enabled = false;
+    }
+
+    /**
+     * Deletes transactions older than the given time, on the calling thread
+     *
+     * @param before Time in milliseconds since the epoch
+     * @return Amount of transactions deleted, or -1 if pruning failed
+     */
+    public static int prune(long before) {
+        Map<Integer, Object> params = new LinkedHashMap<>();
+        params.put(1, before);
+        int[] deleted = { 0 };
+        SSDatabase db = new SSDatabase(filename);
+        boolean committed;
+        try {
+            committed = db.runInTransaction(() -> {
+                db.runStatement("DELETE FROM ShopTransactionItem WHERE TransactionID IN (SELECT TransactionID FROM ShopTransaction WHERE Time < ?)", params, false);
+                Object result = db.runStatement("DELETE FROM ShopTransaction WHERE Time < ?", params, false);
+                if (result instanceof Integer)
+                    deleted[0] = (Integer) result;
+            });
+        } finally {
+            db.close();
+        }
+        if (!committed)
+            return -1;
+        if (deleted[0] > 0)
+            SignShop.getInstance().debugMessage("Pruned " + deleted[0] + " transaction(s) from " + filename);
+        return deleted[0];
+    }
+
+    /**
+     * Latest transactions of the shop with its sign at the given location, newest first
+     */
+    public static List<Row> getByShop(Location signLocation, int page, int pageSize) {
+        Map<Integer, Object> params = new LinkedHashMap<>();
+        params.put(1, signLocation.getWorld().getName());
+        params.put(2, signLocation.getBlockX());
+        params.put(3, signLocation.getBlockY());
+        params.put(4, signLocation.getBlockZ());
+        return getRows("WHERE t.World = ? AND t.X = ? AND t.Y = ? AND t.Z = ?", params, page, pageSize);
+    }
+
+    /**
+     * Latest transactions in shops owned by the player, newest first
+     *
+     * @param owner Identifier as returned by {@link org.wargamer2010.signshop.player.PlayerIdentifier#getStringIdentifier()}
+     */
+    public static List<Row> getByOwner(String owner, int page, int pageSize) {
+        Map<Integer, Object> params = new LinkedHashMap<>();
+        params.put(1, owner);
+        return getRows("WHERE t.Owner = ?", params, page, pageSize);
+    }
+
+    /**
+     * Latest transactions made by the player as a customer, newest first
+     *
+     * @param customer Identifier as returned by {@link org.wargamer2010.signshop.player.PlayerIdentifier#getStringIdentifier()}
+     */
+    public static List<Row> getByCustomer(String customer, int page, int pageSize) {
+        Map<Integer, Object> params = new LinkedHashMap<>();
+        params.put(1, customer);
+        return getRows("WHERE t.Customer = ?", params, page, pageSize);
+    }
+
+    /**
+     * Shop owners ordered by the amount of the item that went through their shops since the given time
+     *
+     * @param itemType Material name
+     * @param since Time in milliseconds since the epoch
+     */
+    public static List<TopOwner> getTopOwners(String itemType, long since, int page, int pageSize) {
+        Map<Integer, Object> params = new LinkedHashMap<>();
+        params.put(1, itemType);
+        params.put(2, since);
+        params.put(3, pageSize);
+        params.put(4, (Math.max(page, 1) - 1) * pageSize);
+
+        SSDatabase db = new SSDatabase(filename);
+        try {
+            List<TopOwner> owners = db.runQuery("SELECT t.Owner, MAX(t.OwnerName) AS OwnerName, SUM(i.Amount) AS Amount, COUNT(*) AS Transactions "
+                    + "FROM ShopTransactionItem i JOIN ShopTransaction t ON t.TransactionID = i.TransactionID "
+                    + "WHERE i.ItemType = ? AND t.Time >= ? GROUP BY t.Owner ORDER BY Amount DESC LIMIT ? OFFSET ?", params,
+                    set -> new TopOwner(set.getString("OwnerName"), set.getLong("Amount"), set.getInt("Transactions")));
+            return (owners == null ? Collections.emptyList() : owners);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<Row> getRows(String where, Map<Integer, Object> params, int page, int pageSize) {
+        params.put(params.size() + 1, pageSize);
+        params.put(params.size() + 1, (Math.max(page, 1) - 1) * pageSize);
+
+        SSDatabase db = new SSDatabase(filename);
+        try {
+            List<Row> rows = db.runQuery("SELECT " + rowColumns + " FROM ShopTransaction t " + where + " ORDER BY t.Time DESC LIMIT ? OFFSET ?", params, set -> {
+                String items = set.getString("Items");
+                return new Row(set.getLong("Time"), set.getString("World"), set.getInt("X"), set.getInt("Y"), set.getInt("Z"),
+                        set.getString("OwnerName"), set.getString("CustomerName"), set.getString("Operation"),
+                        (items == null ? "" : items), set.getDouble("Price"));
+            });
+            return (rows == null ? Collections.emptyList() : rows);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * A transaction as returned by the queries
+     */
+    public static class Row {
+        public final long time;
+        public final String world;
+        public final int x;
+        public final int y;
+        public final int z;
+        public final String ownerName;
+        public final String customerName;
+        public final String operation;
+        public final String items;
+        public final double price;
+
+        private Row(long time, String world, int x, int y, int z, String ownerName, String customerName, String operation, String items, double price) {
+            this.time = time;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.ownerName = ownerName;
+            this.customerName = customerName;
+            this.operation = operation;
+            this.items = items;
+            this.price = price;
+        }
+    }
+
+    /**
+     * A shop owner with the total amount of an item traded in their shops
+     */
+    public static class TopOwner {
+        public final String ownerName;
+        public final long amount;
+        public final int transactions;
+
+        private TopOwner(String ownerName, long amount, int transactions) {
+            this.ownerName = ownerName;
+            this.amount = amount;
+            this.transactions = transactions;
+        }
+    }
+
+    /**
+     * Snapshot of a transaction waiting to be inserted
+     */
+    private static class Entry {
+        private final long time;
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final String owner;
+        private final String ownerName;
+        private final String customer;
+        private final String customerName;
+        private final String operation;
+        private final double price;
+        private final Map<String, Integer> amountsByType = new LinkedHashMap<>();
+
+        private Entry(SignShopPlayer customer, Seller seller, String operation, ItemStack[] items, double price) {
+            this.time = System.currentTimeMillis();
+            Location location = seller.getSignLocation();
+            this.world = seller.getWorld();
+            this.x = location.getBlockX();
+            this.y = location.getBlockY();
+            this.z = location.getBlockZ();
+            this.owner = getId(seller.getOwner());
+            this.ownerName = nonNull(seller.getOwner().getName());
+            this.customer = getId(customer);
+            this.customerName = nonNull(customer.getName());
+            this.operation = operation;
+            this.price = price;
+            if (items != null)
+                for (ItemStack item : items)
+                    if (item != null)
+                        amountsByType.merge(item.getType().name(), item.getAmount(), Integer::sum);
+        }
+
+        private void insert(SSDatabase db) {
+            Map<Integer, Object> params = new LinkedHashMap<>();
+            params.put(1, time);
+            params.put(2, world);
+            params.put(3, x);
+            params.put(4, y);
+            params.put(5, z);
+            params.put(6, owner);
+            params.put(7, ownerName);
+            params.put(8, customer);
+            params.put(9, customerName);
+            params.put(10, operation);
+            params.put(11, price);
+            Object id = db.runStatement("INSERT INTO ShopTransaction(Time, World, X, Y, Z, Owner, OwnerName, Customer, CustomerName, Operation, Price) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", params, false);
+            if (!(id instanceof Integer))
+                throw new IllegalStateException("could not insert transaction");
+
+            Map<Integer, Object> itemParams = new LinkedHashMap<>();
+            itemParams.put(1, id);
+            for (Map.Entry<String, Integer> item : amountsByType.entrySet()) {
+                itemParams.put(2, item.getKey());
+                itemParams.put(3, item.getValue());
+                if (db.runStatement("INSERT INTO ShopTransactionItem(TransactionID, ItemType, Amount) VALUES (?, ?, ?)", itemParams, false) == null)
+                    throw new IllegalStateException("could not insert the items of transaction " + id);
+            }
+        }
+
+        /**
+         * @return The identifier of the player, or the name for legacy players without one
+         */
+        private static String getId(SignShopPlayer player) {
+            PlayerIdentifier identifier = player.GetIdentifier();
+            return (identifier == null ? nonNull(player.getName()) : identifier.getStringIdentifier());
+        }
+
+        private static String nonNull(String value) {
+            return (value == null ? "" : value);
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package org.wargamer2010.signshop.data;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.PerfStats;
+import org.wargamer2010.signshop.util.economyUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Asynchronous, structured log of shop transactions.
+ *
+ * <p>The thread running the transaction only takes a snapshot of it and puts that in a bounded,
+ * lock-free ring buffer. A background thread drains the buffer in batches and appends one JSON
+ * object per line to {@code transactions/transactions.jsonl}. When that file passes the configured
+ * size or age it is renamed after the time it was started and gzipped.</p>
+ *
+ * <p>If the writer falls so far behind that the buffer is full, new records are dropped and counted
+ * as {@code transactionlog.dropped} in {@link PerfStats}; a transaction never waits for the disk.</p>
+ */
+public class TransactionLog {
+    private static final String threadName = "SignShop-TransactionLog";
+    private static final String folderName = "transactions";
+    private static final String activeName = "transactions.jsonl";
+    private static final int capacity = 8192; // Must be a power of two
+    private static final int batchSize = 512;
+    private static final long idleParkNanos = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long shutdownTimeoutMillis = 10 * 1000L;
+
+    private static volatile TransactionLog instance = null;
+
+    // Ring buffer, multiple producers and a single consumer. A slot may be written when its sequence
+    // equals the producer position and read when it equals the consumer position + 1.
+    private final Record[] slots = new Record[capacity];
+    private final AtomicLongArray sequences = new AtomicLongArray(capacity);
+    private final AtomicLong producerPosition = new AtomicLong();
+    private long consumerPosition = 0;
+
+    private final File folder;
+    private final File active;
+    private final long maxBytes;
+    private final long rotateMillis;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private Writer out = null;
+    private long activeBytes = 0;
+    private long activeStarted = 0;
+
+    private TransactionLog(File folder, long maxBytes, long rotateMillis) {
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+        this.folder = folder;
+        this.active = new File(folder, activeName);
+        this.maxBytes = maxBytes;
+        this.rotateMillis = rotateMillis;
+        this.thread = new Thread(this::runWriter, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the log, stopping a previously started one first
+     *
+     * @param dataFolder Plugin data folder, the log is written to a subfolder of it
+     * @param maxBytes Size after which the current file is rotated, 0 or less to disable
+     * @param rotateMillis Age after which the current file is rotated, 0 or less to disable
+     */
+    public static synchronized void start(File dataFolder, long maxBytes, long rotateMillis) {
+        shutdown();
+        File folder = new File(dataFolder, folderName);
+        if (!folder.exists() && !folder.mkdirs()) {
+            SignShop.log("Failed to create transaction log folder " + folder.getPath(), Level.WARNING);
+            return;
+        }
+        TransactionLog log = new TransactionLog(folder, maxBytes, rotateMillis);
+        log.thread.start();
+        instance = log;
+    }
+
+    /**
+     * Writes everything that is still buffered and stops the writer thread
+     */
+    public static synchronized void shutdown() {
+        TransactionLog log = instance;
+        if (log == null)
+            return;
+        instance = null;
+        log.running = false;
+        LockSupport.unpark(log.thread);
+        try {
+            log.thread.join(shutdownTimeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (log.thread.isAlive())
+            SignShop.log("Transaction log did not finish writing within " + (shutdownTimeoutMillis / 1000) + " seconds", Level.WARNING);
+        if (log.dropped.get() > 0)
+            SignShop.log("Transaction log dropped " + log.dropped.get() + " record(s) because it could not keep up", Level.WARNING);
+    }
+
+    public static boolean isRunning() {
+        return instance != null;
+    }
+
+    /**
+     * Queues a transaction to be written. Must be called from the thread running the transaction,
+     * since it reads the players, the shop and the items.
+     *
+     * @param customer Player using the shop
+     * @param seller The shop
+     * @param operation Operation of the shop
+     * @param items Items that changed hands, may be null
+     * @param description Items as shown to the player, may contain color codes
+     * @param price Price of the transaction
+     */
+    public static void log(SignShopPlayer customer, Seller seller, String operation, ItemStack[] items, String description, double price) {
+        TransactionLog log = instance;
+        if (log == null)
+            return;
+        if (!log.offer(new Record(customer, seller, operation, items, description, price))) {
+            log.dropped.incrementAndGet();
+            PerfStats.increment("transactionlog.dropped");
+        }
+    }
+
+    /**
+     * Queues a transaction that only has the names of the players and the items as text, as passed by
+     * add-ons using the old {@code SignShop.logTransaction}
+     *
+     * @param customer Name of the player using the shop
+     * @param owner Name of the shop owner
+     * @param operation Operation of the shop
+     * @param items Items as shown to the player
+     * @param price Price of the transaction as shown to the player
+     */
+    public static void log(String customer, String owner, String operation, String items, String price) {
+        TransactionLog log = instance;
+        if (log == null)
+            return;
+        if (!log.offer(new Record(customer, owner, operation, items, economyUtil.parsePrice(price)))) {
+            log.dropped.incrementAndGet();
+            PerfStats.increment("transactionlog.dropped");
+        }
+    }
+
+    private boolean offer(Record record) {
+        while (true) {
+            long position = producerPosition.get();
+            int index = (int) (position & (capacity - 1));
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (producerPosition.compareAndSet(position, position + 1)) {
+                    slots[index] = record;
+                    sequences.set(index, position + 1); // Publishes the slot to the writer
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false; // The writer has not yet consumed this slot, the buffer is full
+            }
+        }
+    }
+
+    private Record poll() {
+        int index = (int) (consumerPosition & (capacity - 1));
+        if (sequences.get(index) != consumerPosition + 1)
+            return null;
+        Record record = slots[index];
+        slots[index] = null;
+        sequences.set(index, consumerPosition + capacity);
+        consumerPosition++;
+        return record;
+    }
+
+    private void runWriter() {
+        List<Record> batch = new ArrayList<>(batchSize);
+        StringBuilder line = new StringBuilder(512);
+        try {
+            open();
+            while (true) {
+                boolean stopping = !running;
+                Record record;
+                while (batch.size() < batchSize && (record = poll()) != null)
+                    batch.add(record);
+                if (batch.isEmpty()) {
+                    if (stopping)
+                        break;
+                    if (out != null)
+                        out.flush();
+                    LockSupport.parkNanos(idleParkNanos);
+                    continue;
+                }
+                long start = PerfStats.start();
+                for (Record entry : batch) {
+                    rotateIfNeeded(entry.time);
+                    line.setLength(0);
+                    entry.appendJson(line);
+                    line.append('\n');
+                    out.write(line.toString());
+                    activeBytes += utf8Length(line);
+                }
+                out.flush();
+                batch.clear();
+                PerfStats.record("transactionlog.write", start);
+            }
+        } catch (IOException ex) {
+            SignShop.log("Transaction log stopped because: " + ex.getMessage() + ", transactions are not logged until SignShop is reloaded", Level.SEVERE);
+        } finally {
+            close();
+            // Nothing drains the buffer anymore, stop accepting records instead of dropping them silently
+            if (instance == this)
+                instance = null;
+        }
+    }
+
+    private void open() throws IOException {
+        activeStarted = System.currentTimeMillis();
+        activeBytes = 0;
+        if (active.exists()) {
+            activeBytes = active.length();
+            activeStarted = Files.readAttributes(active.toPath(), BasicFileAttributes.class).creationTime().toMillis();
+        }
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(active, true), StandardCharsets.UTF_8));
+    }
+
+    private void close() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException ex) {
+            SignShop.log("Failed to close the transaction log because: " + ex.getMessage(), Level.WARNING);
+        }
+        out = null;
+    }
+
+    private void rotateIfNeeded(long now) throws IOException {
+        boolean tooBig = (maxBytes > 0 && activeBytes >= maxBytes);
+        boolean tooOld = (rotateMillis > 0 && activeBytes > 0 && now - activeStarted >= rotateMillis);
+        if (!tooBig && !tooOld)
+            return;
+
+        close();
+        File rotated = new File(folder, "transactions-" + formatStamp(activeStarted) + ".jsonl");
+        for (int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); i++)
+            rotated = new File(folder, "transactions-" + formatStamp(activeStarted) + "-" + i + ".jsonl");
+        boolean renamed = active.renameTo(rotated);
+        if (renamed)
+            gzip(rotated);
+        else
+            SignShop.log("Failed to rotate the transaction log to " + rotated.getName(), Level.WARNING);
+        open();
+        if (!renamed) {
+            // Keep appending to the current file and try again once it has grown or aged as much again
+            activeBytes = 0;
+            activeStarted = now;
+        }
+    }
+
+    private static void gzip(File file) {
+        File target = new File(file.getPath() + ".gz");
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(file); OutputStream gz = new GZIPOutputStream(new FileOutputStream(target))) {
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                gz.write(buffer, 0, read);
+        } catch (IOException ex) {
+            // Keep the uncompressed file, it is still a complete segment
+            SignShop.log("Failed to compress " + file.getName() + " because: " + ex.getMessage(), Level.WARNING);
+            target.delete();
+            return;
+        }
+        if (!file.delete())
+            SignShop.log("Failed to remove " + file.getName() + " after compressing it", Level.WARNING);
+    }
+
+    private static String formatStamp(long millis) {
+        return new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(millis));
+    }
+
+    private static long utf8Length(CharSequence sequence) {
+        long length = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if (c < 0x80)
+                length++;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else
+                length += 3;
+        }
+        return length;
+    }
+
+    /**
+     * Snapshot of a transaction, taken on the thread running it and serialized by the writer
+     */
+    private static class Record {
+        private final long time;
+        private final String customerId;
+        private final String customerName;
+        private final String ownerId;
+        private final String ownerName;
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final String operation;
+        private final String[] itemTypes;
+        private final int[] itemAmounts;
+        private final String[] itemMeta;
+        private final String description;
+        private final double price;
+
+        private Record(SignShopPlayer customer, Seller seller, String operation, ItemStack[] items, String description, double price) {
+            this.time = System.currentTimeMillis();
+            Player player = customer.getPlayer();
+            this.customerId = (player == null ? null : player.getUniqueId().toString());
+            this.customerName = customer.getName();
+            // Legacy shops owned by a name that never played have no identifier
+            PlayerIdentifier ownerIdentifier = seller.getOwner().GetIdentifier();
+            this.ownerId = (ownerIdentifier == null ? seller.getOwner().getName() : ownerIdentifier.getStringIdentifier());
+            this.ownerName = seller.getOwner().getName();
+            Location location = seller.getSignLocation();
+            this.world = seller.getWorld();
+            this.x = location.getBlockX();
+            this.y = location.getBlockY();
+            this.z = location.getBlockZ();
+            this.operation = operation;
+            this.description = (description == null ? "" : ChatColor.stripColor(description));
+            this.price = price;
+
+            int count = 0;
+            if (items != null)
+                for (ItemStack item : items)
+                    if (item != null)
+                        count++;
+            itemTypes = new String[count];
+            itemAmounts = new int[count];
+            itemMeta = new String[count];
+            if (items == null)
+                return;
+            int i = 0;
+            for (ItemStack item : items) {
+                if (item == null)
+                    continue;
+                itemTypes[i] = item.getType().name();
+                itemAmounts[i] = item.getAmount();
+                // Enough to tell differently named or enchanted stacks of one material apart
+                itemMeta[i] = (item.hasItemMeta() ? Integer.toHexString(item.getItemMeta().hashCode()) : null);
+                i++;
+            }
+        }
+
+        private Record(String customerName, String ownerName, String operation, String description, double price) {
+            this.time = System.currentTimeMillis();
+            this.customerId = null;
+            this.customerName = customerName;
+            this.ownerId = null;
+            this.ownerName = ownerName;
+            this.world = null;
+            this.x = 0;
+            this.y = 0;
+            this.z = 0;
+            this.operation = operation;
+            this.itemTypes = new String[0];
+            this.itemAmounts = new int[0];
+            this.itemMeta = new String[0];
+            this.description = (description == null ? "" : ChatColor.stripColor(description));
+            this.price = price;
+        }
+
+        private void appendJson(StringBuilder builder) {
+            builder.append("{\"time\":\"").append(Instant.ofEpochMilli(time)).append('"');
+            appendField(builder, "customer", customerId);
+            appendField(builder, "customerName", customerName);
+            appendField(builder, "owner", ownerId);
+            appendField(builder, "ownerName", ownerName);
+            appendField(builder, "world", world);
+            builder.append(",\"x\":").append(x).append(",\"y\":").append(y).append(",\"z\":").append(z);
+            appendField(builder, "operation", operation);
+            builder.append(",\"items\":[");
+            for (int i = 0; i < itemTypes.length; i++) {
+                if (i > 0)
+                    builder.append(',');
+                builder.append("{\"type\":\"").append(itemTypes[i]).append("\",\"amount\":").append(itemAmounts[i]);
+                if (itemMeta[i] != null)
+                    builder.append(",\"meta\":\"").append(itemMeta[i]).append('"');
+                builder.append('}');
+            }
+            builder.append(']');
+            appendField(builder, "description", description);
+            builder.append(",\"price\":");
+            if (Double.isNaN(price) || Double.isInfinite(price))
+                builder.append("null");
+            else
+                builder.append(price);
+            builder.append('}');
+        }
+
+        private static void appendField(StringBuilder builder, String name, String value) {
+            builder.append(",\"").append(name).append("\":");
+            if (value == null) {
+                builder.append("null");
+                return;
+            }
+            builder.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        builder.append("\\\"");
+                        break;
+                    case '\\':
+                        builder.append("\\\\");
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    case '\r':
+                        builder.append("\\r");
+                        break;
+                    case '\t':
+                        builder.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20)
+                            builder.append(String.format("\\u%04x", (int) c));
+                        else
+                            builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+    }
+}
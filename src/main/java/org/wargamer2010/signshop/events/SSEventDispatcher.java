@@ -0,0 +1,138 @@
+package org.wargamer2010.signshop.events;
+
+import org.bukkit.Bukkit;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.util.PerfStats;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Dispatches SignShop events, skipping Bukkit's event bus when only SignShop listens to them.
+ *
+ * <p>SignShop's own listeners (see {@code SignShop.registerSSListeners}) are registered here as
+ * well as with Bukkit. When the {@link org.bukkit.event.HandlerList} of an event holds nothing
+ * but SignShop's listeners, the event is passed straight to them, in priority order and in the
+ * order they were registered. As soon as another plugin registers a handler for that event, it
+ * is fired through the plugin manager as usual so that plugin sees it in the correct order.</p>
+ */
+public class SSEventDispatcher {
+    private static final Map<Class<? extends Event>, InternalHandler[]> internalHandlers = new ConcurrentHashMap<>();
+    private static final PerfStats.Names eventTimers = new PerfStats.Names("event.");
+
+    private SSEventDispatcher() {
+
+    }
+
+    /**
+     * Registers the listener with Bukkit and with the internal pipeline
+     *
+     * @param listener SignShop listener
+     * @param plugin SignShop
+     */
+    public static void registerInternal(Listener listener, Plugin plugin) {
+        Bukkit.getServer().getPluginManager().registerEvents(listener, plugin);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Method method : listener.getClass().getMethods()) {
+            EventHandler annotation = method.getAnnotation(EventHandler.class);
+            if (annotation == null || method.getParameterCount() != 1 || !Event.class.isAssignableFrom(method.getParameterTypes()[0]))
+                continue;
+            Class<? extends Event> eventClass = method.getParameterTypes()[0].asSubclass(Event.class);
+            MethodHandle handle;
+            try {
+                method.setAccessible(true);
+                handle = lookup.unreflect(method).bindTo(listener);
+            } catch (IllegalAccessException | RuntimeException ex) {
+                SignShop.log("Could not register " + listener.getClass().getSimpleName() + "." + method.getName() + " for direct dispatch: " + ex.getMessage(), Level.WARNING);
+                continue;
+            }
+            InternalHandler handler = new InternalHandler(listener, handle, annotation.priority(), annotation.ignoreCancelled());
+            internalHandlers.merge(eventClass, new InternalHandler[]{ handler }, SSEventDispatcher::mergeSorted);
+        }
+    }
+
+    /**
+     * Forgets the internal pipeline. Bukkit unregisters its side when the plugin is disabled.
+     */
+    public static void clear() {
+        internalHandlers.clear();
+    }
+
+    /**
+     * Fires the event, directly when only SignShop listens to it and through Bukkit otherwise
+     *
+     * @param event Event to fire
+     */
+    public static void dispatch(Event event) {
+        long start = PerfStats.start();
+        if (hasExternalListeners(event)) {
+            Bukkit.getServer().getPluginManager().callEvent(event);
+            PerfStats.increment("events.bukkit");
+        } else {
+            dispatchInternal(event);
+            PerfStats.increment("events.direct");
+        }
+        PerfStats.record(eventTimers.of(event.getClass()), start);
+    }
+
+    private static void dispatchInternal(Event event) {
+        InternalHandler[] handlers = internalHandlers.get(event.getClass());
+        if (handlers == null)
+            return;
+        for (InternalHandler handler : handlers) {
+            if (handler.ignoreCancelled && event instanceof Cancellable && ((Cancellable) event).isCancelled())
+                continue;
+            try {
+                handler.handle.invoke(event);
+            } catch (Throwable ex) {
+                SignShop.log("Could not pass " + event.getEventName() + " to " + handler.listener.getClass().getSimpleName() + ": " + ex, Level.SEVERE);
+            }
+        }
+    }
+
+    private static boolean hasExternalListeners(Event event) {
+        Plugin signshop = SignShop.getInstance();
+        for (RegisteredListener registered : event.getHandlers().getRegisteredListeners()) {
+            if (registered.getPlugin() != signshop)
+                return true;
+        }
+        return false;
+    }
+
+    private static InternalHandler[] mergeSorted(InternalHandler[] existing, InternalHandler[] added) {
+        List<InternalHandler> merged = new ArrayList<>(List.of(existing));
+        merged.addAll(List.of(added));
+        // Stable sort, so handlers with the same priority keep their registration order
+        merged.sort(Comparator.comparingInt(handler -> handler.priority.getSlot()));
+        return merged.toArray(new InternalHandler[0]);
+    }
+
+    private static class InternalHandler {
+        private final Listener listener;
+        private final MethodHandle handle;
+        private final EventPriority priority;
+        private final boolean ignoreCancelled;
+
+        private InternalHandler(Listener listener, MethodHandle handle, EventPriority priority, boolean ignoreCancelled) {
+            this.listener = listener;
+            this.handle = handle;
+            this.priority = priority;
+            this.ignoreCancelled = ignoreCancelled;
+        }
+    }
+}
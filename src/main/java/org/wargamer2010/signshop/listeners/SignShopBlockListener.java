@@ -1,5 +1,7 @@
 package org.wargamer2010.signshop.listeners;
 
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.data.BlockData;
@@ -13,8 +15,10 @@ import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockBurnEvent;
 import org.bukkit.event.block.BlockExplodeEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.util.BoundingBox;
 import org.wargamer2010.signshop.Seller;
 import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.data.Storage;
 import org.wargamer2010.signshop.events.SSDestroyedEvent;
 import org.wargamer2010.signshop.events.SSDestroyedEventType;
 import org.wargamer2010.signshop.player.PlayerCache;
@@ -22,8 +26,10 @@ import org.wargamer2010.signshop.player.SignShopPlayer;
 import org.wargamer2010.signshop.util.signshopUtil;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Handles block-related events that affect SignShop shops.
@@ -35,6 +41,7 @@ import java.util.Map;
  * @see SSDestroyedEvent
  */
 public class SignShopBlockListener implements Listener {
+    private static final BlockFace[] neighbourFaces = { BlockFace.UP, BlockFace.DOWN, BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST };
 
     private List<Block> getAttachables(Block originalBlock) {
         List<Block> attachables = new ArrayList<>();
@@ -127,13 +134,61 @@ public class SignShopBlockListener implements Listener {
     public void onBlockExplode(BlockExplodeEvent event) {
         if (event.isCancelled() || !(SignShop.getInstance().getSignShopConfig().getProtectShopsFromExplosions()))
             return;
-        event.blockList().removeIf(block -> canNotBreakBlock(block, null, true));
+        protectShopsFromExplosion(event.blockList());
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onEntityExplode(EntityExplodeEvent event) {
         if (event.isCancelled() || !(SignShop.getInstance().getSignShopConfig().getProtectShopsFromExplosions()))
             return;
-        event.blockList().removeIf(block -> canNotBreakBlock(block, null, true));
+        protectShopsFromExplosion(event.blockList());
+    }
+
+    /**
+     * Removes the blocks that can not be broken from the explosion's block list.
+     *
+     * <p>Shops with a sign or linked block near the explosion are looked up once for its bounding box.
+     * Only blocks that are one of their blocks, or right next to one (something a sign or lever could be
+     * attached to), go through the full {@link #canNotBreakBlock} check.</p>
+     *
+     * @param blocks Blocks destroyed by the explosion
+     */
+    private void protectShopsFromExplosion(List<Block> blocks) {
+        if (blocks.isEmpty())
+            return;
+        World world = blocks.get(0).getWorld();
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (Block block : blocks) {
+            minX = Math.min(minX, block.getX());
+            minY = Math.min(minY, block.getY());
+            minZ = Math.min(minZ, block.getZ());
+            maxX = Math.max(maxX, block.getX());
+            maxY = Math.max(maxY, block.getY());
+            maxZ = Math.max(maxZ, block.getZ());
+        }
+        // Grow by one so signs and levers attached to the outer blocks are found as well
+        BoundingBox area = new BoundingBox(minX - 1, minY - 1, minZ - 1, maxX + 2, maxY + 2, maxZ + 2);
+
+        Set<Location> protectable = new HashSet<>();
+        for (Seller seller : Storage.get().getShopsInChunkRange(world, (minX - 1) >> 4, (minZ - 1) >> 4, (maxX + 1) >> 4, (maxZ + 1) >> 4)) {
+            addProtectable(protectable, area, seller.getSign());
+            for (Block block : seller.getContainables())
+                addProtectable(protectable, area, block);
+            for (Block block : seller.getActivatables())
+                addProtectable(protectable, area, block);
+        }
+        if (protectable.isEmpty())
+            return;
+
+        blocks.removeIf(block -> protectable.contains(block.getLocation()) && canNotBreakBlock(block, null, true));
+    }
+
+    private void addProtectable(Set<Location> protectable, BoundingBox area, Block block) {
+        if (block == null || !area.contains(block.getX() + 0.5, block.getY() + 0.5, block.getZ() + 0.5))
+            return;
+        protectable.add(block.getLocation());
+        for (BlockFace face : neighbourFaces)
+            protectable.add(block.getRelative(face).getLocation());
     }
 }
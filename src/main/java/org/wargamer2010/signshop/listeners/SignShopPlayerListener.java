@@ -3,6 +3,7 @@ package org.wargamer2010.signshop.listeners;
 import net.md_5.bungee.api.chat.BaseComponent;
 import org.bukkit.*;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.Sign;
 import org.bukkit.block.sign.Side;
@@ -20,6 +21,8 @@ import org.bukkit.event.block.SignChangeEvent;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.ItemStack;
 import org.wargamer2010.signshop.Seller;
@@ -29,18 +32,27 @@ import org.wargamer2010.signshop.events.*;
 import org.wargamer2010.signshop.operations.SignShopArguments;
 import org.wargamer2010.signshop.operations.SignShopArgumentsType;
 import org.wargamer2010.signshop.operations.SignShopOperationListItem;
+import org.wargamer2010.signshop.player.MessageWorker;
 import org.wargamer2010.signshop.player.PlayerCache;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
+import org.wargamer2010.signshop.player.PlayerMetadata;
 import org.wargamer2010.signshop.player.SignShopPlayer;
 import org.wargamer2010.signshop.specialops.SignShopSpecialOp;
+import org.wargamer2010.signshop.util.ChunkKey;
+import org.wargamer2010.signshop.util.ChunkPrefetcher;
+import org.wargamer2010.signshop.scheduling.TickGovernor;
+import org.wargamer2010.signshop.util.PerfStats;
 import org.wargamer2010.signshop.util.clicks;
 import org.wargamer2010.signshop.util.economyUtil;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 /**
  * Primary event listener for all player interactions with SignShop signs.
@@ -103,6 +115,16 @@ public class SignShopPlayerListener implements Listener {
     private static final String helpPrefix = "help_";
     /** Metadata key indicating player has dismissed all help messages */
     private static final String anyHelp = "help_anyhelp";
+    /** Chunks around a moving player whose shops get their linked chunks prefetched */
+    private static final int prefetchChunkRadius = 1;
+    private static final PerfStats.Names setupTimers = new PerfStats.Names("setup.");
+    private static final PerfStats.Names checkTimers = new PerfStats.Names("check.");
+    private static final PerfStats.Names runTimers = new PerfStats.Names("run.");
+    private static final PerfStats.Names failedRequirements = new PerfStats.Names("failed.requirements.");
+    private static final PerfStats.Names failedRuns = new PerfStats.Names("failed.run.");
+    private static final PerfStats.Names confirmTimers = new PerfStats.Names("confirm.");
+    private static final PerfStats.Names transactionTimers = new PerfStats.Names("transaction.");
+    private static final PerfStats.Names transactionCounters = new PerfStats.Names("transactions.");
 
     /**
      * Attempts to run special operations (CopySign, ChangeOwner, etc.) based on player's clicked blocks.
@@ -126,7 +148,7 @@ public class SignShopPlayerListener implements Listener {
     private Boolean runSpecialOperations(PlayerInteractEvent event) {
         Player player = event.getPlayer();
         // Get all blocks this player has selected by left-clicking with link material
-        Set<Location> lClicked = signshopUtil.getKeysByValue(clicks.mClicksPerLocation, player);
+        Set<Location> lClicked = clicks.getSelectedLocations(player);
         Boolean ranSomething = false;
 
         List<SignShopSpecialOp> specialops = signshopUtil.getSignShopSpecialOps();
@@ -285,11 +307,24 @@ public class SignShopPlayerListener implements Listener {
         }
     }
 
+    /**
+     * Refreshes the player's cached name and starts loading their metadata (cooldowns, oneTime,
+     * tutorials) in the background so shop clicks can be served from memory.
+     *
+     * @param event The player join event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        PlayerIdentifier.refreshName(event.getPlayer());
+        PlayerMetadata.preload(SignShop.getInstance(), PlayerCache.getPlayer(event.getPlayer()));
+    }
+
     /**
      * Resets player state when they leave the server.
      *
      * <p>Clears the "ignore messages" flag which may have been set during certain
-     * operations to prevent message spam.</p>
+     * operations to prevent message spam, and drops the player's cached metadata, message history,
+     * cached player wrapper and block selection.</p>
      *
      * @param event The player quit event
      */
@@ -297,6 +332,40 @@ public class SignShopPlayerListener implements Listener {
     public void onPlayerLeave(PlayerQuitEvent event) {
         SignShopPlayer signShopPlayer = PlayerCache.getPlayer(event.getPlayer());
         signShopPlayer.setIgnoreMessages(false);
+        PlayerMetadata.evict(SignShop.getInstance(), signShopPlayer);
+        MessageWorker.evict(signShopPlayer);
+        PlayerCache.removeFromCache(event.getPlayer());
+        clicks.removePlayer(event.getPlayer());
+    }
+
+    /**
+     * Starts loading the linked blocks of shops around a player entering a new chunk, so by the time
+     * one of them is clicked its containers are likely available. Chunks held loaded by the
+     * prefetcher itself are skipped, so shops linked to each other don't pull in more and more chunks.
+     *
+     * @param event The move event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if (to == null || ((from.getBlockX() >> 4) == (to.getBlockX() >> 4) && (from.getBlockZ() >> 4) == (to.getBlockZ() >> 4) && from.getWorld() == to.getWorld()))
+            return;
+        if (!SignShop.getInstance().getSignShopConfig().getPrefetchLinkedChunks() || !ChunkPrefetcher.isAsyncLoadingSupported())
+            return;
+
+        UUID worldId = to.getWorld().getUID();
+        int chunkX = (to.getBlockX() >> 4);
+        int chunkZ = (to.getBlockZ() >> 4);
+        for (int x = chunkX - prefetchChunkRadius; x <= chunkX + prefetchChunkRadius; x++) {
+            for (int z = chunkZ - prefetchChunkRadius; z <= chunkZ + prefetchChunkRadius; z++) {
+                ChunkKey key = new ChunkKey(worldId, x, z);
+                if (ChunkPrefetcher.isLeased(key))
+                    continue;
+                for (Seller seller : Storage.get().getShopsInChunk(key))
+                    ChunkPrefetcher.prefetch(seller);
+            }
+        }
     }
 
     /**
@@ -315,7 +384,7 @@ public class SignShopPlayerListener implements Listener {
      *
      * <h3>2. Shop Transaction (Click Existing Shop Without OP Material)</h3>
      * <ol>
-     *   <li>Load chunks containing the shop's linked blocks</li>
+     *   <li>Load chunks containing the shop's linked blocks, asynchronously where the server supports it</li>
      *   <li>Run {@code checkRequirements()} on each operation</li>
      *   <li>Fire {@link SSPreTransactionEvent}</li>
      *   <li><b>Left-click</b>: Show confirmation message and return</li>
@@ -391,7 +460,9 @@ public class SignShopPlayerListener implements Listener {
 
                 for (SignShopOperationListItem ssOperation : SignShopOperations) {
                     ssArgs.setOperationParameters(ssOperation.getParameters());
+                    long setupStart = PerfStats.start();
                     bSetupOK = ssOperation.getOperation().setupOperation(ssArgs);
+                    PerfStats.record(setupTimers.of(ssOperation.getOperation().getClass()), setupStart);
                     if (!bSetupOK)
                         return;
                 }
@@ -509,7 +580,6 @@ public class SignShopPlayerListener implements Listener {
 
         }
         else if (itemUtil.clickedSign(bClicked) && seller != null && (event.getItem() == null || !SignShop.getInstance().getSignShopConfig().isOPMaterial(event.getItem().getType()))) {
-            SignShopPlayer ssOwner = seller.getOwner();
             sLines = ((Sign) bClicked.getState()).getSide(Side.FRONT).getLines();
             sOperation = signshopUtil.getOperation(sLines[0]);
 
@@ -521,15 +591,67 @@ public class SignShopPlayerListener implements Listener {
                 return;
             }
 
-            for (Block bContainable : seller.getContainables())
-                itemUtil.loadChunkByBlock(bContainable);
-            for (Block bActivatable : seller.getActivatables())
-                itemUtil.loadChunkByBlock(bActivatable);
             if (event.getAction() == Action.RIGHT_CLICK_BLOCK && event.getItem() != null) {
                 event.setCancelled(true);
             }
+            List<Block> shopBlocks = new ArrayList<>(seller.getContainables());
+            shopBlocks.addAll(seller.getActivatables());
+            if (!SignShop.getScheduler().isOwnedByCurrentRegion(shopBlocks)) {
+                // Folia does not allow touching blocks of another region from this thread
+                ssPlayer.sendMessage(SignShop.getInstance().getSignShopConfig().getError("linked_blocks_other_region", null));
+                return;
+            }
+            if (!ChunkPrefetcher.ensureLoaded(shopBlocks)) {
+                // Some linked blocks are in unloaded chunks, carry on once they are loaded instead of loading them on this tick
+                Action action = event.getAction();
+                BlockFace blockFace = event.getBlockFace();
+                ChunkPrefetcher.whenLoaded(shopBlocks, bClicked.getLocation(), () -> {
+                    if (!player.isOnline() || Storage.get().getSeller(bClicked.getLocation()) != seller)
+                        return;
+                    if (!SignShop.getScheduler().isOwnedByCurrentRegion(shopBlocks))
+                        ssPlayer.sendMessage(SignShop.getInstance().getSignShopConfig().getError("linked_blocks_other_region", null));
+                    else
+                        runTransaction(player, ssPlayer, seller, bClicked, sLines, sOperation, SignShopOperations, action, blockFace);
+                });
+                return;
+            }
+            if (runTransaction(player, ssPlayer, seller, bClicked, sLines, sOperation, SignShopOperations, event.getAction(), event.getBlockFace()))
+                event.setCancelled(true);
+            return;
+        }
+        if (event.getItem() != null && seller != null && SignShop.getInstance().getSignShopConfig().isOPMaterial(event.getItem().getType())) {
+            if (!runSpecialOperations(event)) {
+                signshopUtil.registerClickedMaterial(event);
+            }
+        }
+        List<Seller> touchedShops = Storage.get().getShopsByBlock(bClicked);
+        if (!touchedShops.isEmpty()) {
+            SignShopPlayer ssPlayer = PlayerCache.getPlayer(player);
+            for (Seller shop : touchedShops) {
+                SSTouchShopEvent touchevent = new SSTouchShopEvent(ssPlayer, shop, event.getAction(), bClicked);
+                SignShop.scheduleEvent(touchevent);
+                if (touchevent.isCancelled()) {
+                    event.setCancelled(true);
+                    signshopUtil.fixCreativeModeSignRendering(event.getClickedBlock(), event.getPlayer());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the requirements of the shop and, on a right click, runs its operations.
+     * Split from {@link #onPlayerInteract} so it can also run once the chunks of linked blocks are loaded.
+     *
+     * @return True if the transaction went through and the interaction should be cancelled
+     */
+    private boolean runTransaction(Player player, SignShopPlayer ssPlayer, Seller seller, Block bClicked, String[] sLines, String sOperation,
+                                   List<SignShopOperationListItem> SignShopOperations, Action action, BlockFace blockFace) {
+        long transactionStart = PerfStats.start();
+        SignShopPlayer ssOwner = seller.getOwner();
+        try {
             SignShopArguments ssArgs = new SignShopArguments(economyUtil.parsePrice(sLines[3]), seller.getItems(), seller.getContainables(), seller.getActivatables(),
-                    ssPlayer, ssOwner, bClicked, sOperation, event.getBlockFace(), event.getAction(), SignShopArgumentsType.Check);
+                    ssPlayer, ssOwner, bClicked, sOperation, blockFace, action, SignShopArgumentsType.Check);
 
             if (seller.getRawMisc() != null)
                 ssArgs.miscSettings = seller.getRawMisc();
@@ -541,7 +663,11 @@ public class SignShopPlayerListener implements Listener {
             // If left-clicking, all blocks should get a chance to run checkRequirements
             for (SignShopOperationListItem ssOperation : SignShopOperations) {
                 ssArgs.setOperationParameters(ssOperation.getParameters());
+                long checkStart = PerfStats.start();
                 bRequirementsOK = ssOperation.getOperation().checkRequirements(ssArgs, true);
+                PerfStats.record(checkTimers.of(ssOperation.getOperation().getClass()), checkStart);
+                if (!bRequirementsOK)
+                    PerfStats.increment(failedRequirements.of(ssOperation.getOperation().getClass()));
                 if (!ssArgs.isLeftClicking() && !bRequirementsOK)
                     break;
                 else if (!bRequirementsOK)
@@ -550,12 +676,15 @@ public class SignShopPlayerListener implements Listener {
 
             if (!bReqOKSolid)
                 bRequirementsOK = false;
-            SSPreTransactionEvent pretransactevent = SSEventFactory.generatePreTransactionEvent(ssArgs, seller, event.getAction(), bRequirementsOK);
+            SSPreTransactionEvent pretransactevent = SSEventFactory.generatePreTransactionEvent(ssArgs, seller, action, bRequirementsOK);
             SignShop.scheduleEvent(pretransactevent);
             // Skip the requirements check if we're left-clicking
             // The confirmation message should always be shown when left-clicking
-            if (!ssArgs.isLeftClicking() && (!bRequirementsOK || pretransactevent.isCancelled()))
-                return;
+            if (!ssArgs.isLeftClicking() && (!bRequirementsOK || pretransactevent.isCancelled())) {
+                if (bRequirementsOK)
+                    PerfStats.increment("failed.pretransaction_cancelled");
+                return false;
+            }
             ssArgs.setArgumentType(SignShopArgumentsType.Run);
             ssArgs.getPrice().set(pretransactevent.getPrice());
             if (ssArgs.isLeftClicking()) {
@@ -564,24 +693,31 @@ public class SignShopPlayerListener implements Listener {
                         .getMessageAsComponent("confirm", ssArgs.getOperation().get(), ssArgs.getMessageParts());
                 ssPlayer.sendMessage(confirmMessage);
                 ssArgs.reset();
-                return;
+                PerfStats.record(confirmTimers.of(sOperation), transactionStart);
+                return false;
             }
             ssArgs.reset();
             for (SignShopOperationListItem ssOperation : SignShopOperations) {
                 ssArgs.setOperationParameters(ssOperation.getParameters());
+                long runStart = PerfStats.start();
                 bRunOK = ssOperation.getOperation().runOperation(ssArgs);
+                PerfStats.record(runTimers.of(ssOperation.getOperation().getClass()), runStart);
 
-                if (!bRunOK)
-                    return;
+                if (!bRunOK) {
+                    PerfStats.increment(failedRuns.of(ssOperation.getOperation().getClass()));
+                    return false;
+                }
             }
             if (!bRunOK)
-                return;
+                return false;
 
-            SSPostTransactionEvent posttransactevent = SSEventFactory.generatePostTransactionEvent(ssArgs, seller, event.getAction());
+            SSPostTransactionEvent posttransactevent = SSEventFactory.generatePostTransactionEvent(ssArgs, seller, action);
             SignShop.scheduleEvent(posttransactevent);
-            if (posttransactevent.isCancelled())
-                return;
-            if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
+            if (posttransactevent.isCancelled()) {
+                PerfStats.increment("failed.posttransaction_cancelled");
+                return false;
+            }
+            if (action == Action.RIGHT_CLICK_BLOCK) {
                 //noinspection UnstableApiUsage
                 player.updateInventory();
             }
@@ -592,28 +728,13 @@ public class SignShopPlayerListener implements Listener {
             String[] sChests = new String[chests.size()];
             chests.toArray(sChests);
             String items = (!ssArgs.hasMessagePart("!items") ? signshopUtil.implode(sChests, " and ") : ssArgs.getMessagePart("!items"));
-            SignShop.getInstance().logTransaction(player.getName(), seller.getOwner().getName(), sOperation, items, economyUtil.formatMoney(ssArgs.getPrice().get()));
+            SignShop.getInstance().logTransaction(ssPlayer, seller, sOperation, ssArgs.getItems().get(), items, ssArgs.getPrice().get());
 
-            event.setCancelled(true);
-            return;
-        }
-        if (event.getItem() != null && seller != null && SignShop.getInstance().getSignShopConfig().isOPMaterial(event.getItem().getType())) {
-            if (!runSpecialOperations(event)) {
-                signshopUtil.registerClickedMaterial(event);
-            }
-        }
-        List<Seller> touchedShops = Storage.get().getShopsByBlock(bClicked);
-        if (!touchedShops.isEmpty()) {
-            SignShopPlayer ssPlayer = PlayerCache.getPlayer(player);
-            for (Seller shop : touchedShops) {
-                SSTouchShopEvent touchevent = new SSTouchShopEvent(ssPlayer, shop, event.getAction(), bClicked);
-                SignShop.scheduleEvent(touchevent);
-                if (touchevent.isCancelled()) {
-                    event.setCancelled(true);
-                    signshopUtil.fixCreativeModeSignRendering(event.getClickedBlock(), event.getPlayer());
-                    break;
-                }
-            }
+            PerfStats.increment(transactionCounters.of(sOperation));
+            PerfStats.record(transactionTimers.of(sOperation), transactionStart);
+            return true;
+        } finally {
+            TickGovernor.charge(System.nanoTime() - transactionStart);
         }
     }
 
@@ -0,0 +1,23 @@
+package org.wargamer2010.signshop.listeners.sslisteners;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.wargamer2010.signshop.data.ShopSearchIndex;
+import org.wargamer2010.signshop.events.SSPostTransactionEvent;
+import org.wargamer2010.signshop.money.DemandTracker;
+
+/**
+ * Internal listener that counts the items bought and sold in completed transactions for dynamic pricing.
+ */
+public class DemandRecorder implements Listener {
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onSSPostTransactionEvent(SSPostTransactionEvent event) {
+        if(event.isCancelled() || event.getItems() == null || event.getSign() == null)
+            return;
+        ShopSearchIndex.Direction direction = ShopSearchIndex.getDirection(event.getOperation());
+        if(direction == null)
+            return;
+        DemandTracker.record(event.getItems(), (direction == ShopSearchIndex.Direction.BUY), event.getSign().getLocation());
+    }
+}
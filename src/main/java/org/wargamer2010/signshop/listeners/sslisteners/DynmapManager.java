@@ -16,10 +16,18 @@ import org.wargamer2010.signshop.data.Storage;
 import org.wargamer2010.signshop.events.SSCreatedEvent;
 import org.wargamer2010.signshop.events.SSDestroyedEvent;
 import org.wargamer2010.signshop.events.SSDestroyedEventType;
+import org.wargamer2010.signshop.scheduling.SchedulerAdapter;
+import org.wargamer2010.signshop.scheduling.TickGovernor;
 import org.wargamer2010.signshop.util.signshopUtil;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.logging.Level;
 
 /**
@@ -28,6 +36,12 @@ import java.util.logging.Level;
  * <p>Creates map markers for shops so they appear on the Dynmap web interface.
  * Uses the modern DynmapCommonAPIListener pattern for Dynmap 3.0+ compatibility.</p>
  *
+ * <p>Markers are synchronized incrementally. What each marker should show is kept as a summary per
+ * shop, next to what it shows on the map, and only markers where the two differ are queued. A task
+ * applies at most DynmapMarkersPerTick of those every tick, so enabling Dynmap on a server with many
+ * shops, or editing many shops at once, spreads the marker updates over several ticks. The task is
+ * started when something is queued and cancels itself once the queue is empty.</p>
+ *
  * @since 5.1.0
  */
 public class DynmapManager extends DynmapCommonAPIListener implements Listener {
@@ -35,12 +49,19 @@ public class DynmapManager extends DynmapCommonAPIListener implements Listener {
     private MarkerAPI markerAPI = null;
     private MarkerSet ms = null;
     private MarkerIcon mi = null;
+    private SchedulerAdapter.ScheduledTask syncTask = null;
+
+    // Marker id -> what the marker should show, what it shows on the map, and the ids where those differ
+    private final Map<String, MarkerSummary> desired = new HashMap<>();
+    private final Map<String, MarkerSummary> applied = new HashMap<>();
+    private final Set<String> pending = new LinkedHashSet<>();
 
     private final static String MarkerSetName = "SignShopMarkers";
     private final static String MarkerSetLabel = "SignShop Marker Set";
     private final static String Filename = "signshopsign.png";
     private final static String MarkerName = "signshop_icon_555";
     private final static String MarkerLabel = "SignShop";
+    private final static String MarkerPrefix = "SignShop_";
 
     public DynmapManager() {
         // Register with Dynmap using the modern API listener pattern (Dynmap 3.0+)
@@ -62,6 +83,11 @@ public class DynmapManager extends DynmapCommonAPIListener implements Listener {
      */
     @Override
     public void apiDisabled(DynmapCommonAPI api) {
+        synchronized (this) {
+            if (syncTask != null)
+                syncTask.cancel();
+            syncTask = null;
+        }
         dynmapAPI = null;
         markerAPI = null;
         ms = null;
@@ -129,41 +155,111 @@ public class DynmapManager extends DynmapCommonAPIListener implements Listener {
             mi = markerAPI.getMarkerIcon("sign");
         }
 
-        // Create markers for all existing shops
-        for (Seller seller : Storage.get().getSellers()) {
-            ManageMarkerForSeller(seller, false);
+        // Put markers for all shops on the map over the next ticks, only changing those that differ
+        int toUpdate;
+        synchronized (this) {
+            desired.clear();
+            String icon = getIconId();
+            for (Seller seller : Storage.get().getSellers())
+                desired.put(getMarkerId(seller.getSignLocation()), new MarkerSummary(seller.getSignLocation(), seller.getOwner().getName(), seller.getWorld(), icon));
+            applied.clear();
+            pending.clear();
+            for (Marker marker : ms.getMarkers()) {
+                String id = marker.getMarkerID();
+                if (id.startsWith(MarkerPrefix))
+                    applied.put(id, new MarkerSummary(marker));
+            }
+            for (Map.Entry<String, MarkerSummary> entry : desired.entrySet())
+                if (!entry.getValue().equals(applied.get(entry.getKey())))
+                    pending.add(entry.getKey());
+            for (String id : applied.keySet())
+                if (!desired.containsKey(id))
+                    pending.add(id);
+            toUpdate = pending.size();
+            startSyncTask();
         }
 
-        SignShop.log("Dynmap integration enabled successfully.", Level.INFO);
+        SignShop.log("Dynmap integration enabled successfully, " + toUpdate + " marker(s) to update.", Level.INFO);
     }
 
-    private void ManageMarkerForSeller(Seller seller, boolean remove) {
-        ManageMarkerForSeller(seller.getSignLocation(), seller.getOwner().getName(), seller.getWorld(), remove);
-    }
-
-    private void ManageMarkerForSeller(Location loc, String owner, String world, boolean remove) {
-        if (!safelyCheckInit() || ms == null) {
+    /**
+     * Applies up to DynmapMarkersPerTick of the pending marker changes
+     */
+    private void syncMarkers() {
+        if (!safelyCheckInit() || ms == null)
             return;
+        long start = System.nanoTime();
+        int limit = SignShop.getInstance().getSignShopConfig().getDynmapMarkersPerTick();
+        synchronized (this) {
+            Iterator<String> iterator = pending.iterator();
+            for (int done = 0; done < limit && iterator.hasNext(); done++) {
+                String id = iterator.next();
+                iterator.remove();
+                applyMarker(id, desired.get(id));
+            }
+            // Nothing left to do, updateDesired starts the task again when a marker changes
+            if (pending.isEmpty() && syncTask != null) {
+                syncTask.cancel();
+                syncTask = null;
+            }
         }
+        TickGovernor.charge(System.nanoTime() - start);
+    }
 
-        String id = ("SignShop_" + signshopUtil.convertLocationToString(loc).replace(".", ""));
-        String label = (owner + "'s SignShop");
+    /**
+     * Starts the task applying the pending changes, if there are any and it is not running yet.
+     * To be called while holding the monitor of this manager.
+     */
+    private void startSyncTask() {
+        if (syncTask == null && !pending.isEmpty() && safelyCheckInit() && ms != null)
+            syncTask = SignShop.getScheduler().runTimer(this::syncMarkers, 1, 1);
+    }
 
+    private void applyMarker(String id, MarkerSummary summary) {
         Marker m = ms.findMarker(id);
-        if (remove) {
+        if (summary == null) {
             if (m != null) {
                 m.deleteMarker();
             }
+            applied.remove(id);
             return;
         }
 
         if (m == null) {
-            ms.createMarker(id, label, world, loc.getX(), loc.getY(), loc.getZ(), mi, false);
+            ms.createMarker(id, summary.label, summary.world, summary.x, summary.y, summary.z, mi, false);
         } else {
-            m.setLocation(world, loc.getX(), loc.getY(), loc.getZ());
-            m.setLabel(label);
+            m.setLocation(summary.world, summary.x, summary.y, summary.z);
+            m.setLabel(summary.label);
             m.setMarkerIcon(mi);
         }
+        applied.put(id, summary);
+    }
+
+    /**
+     * Records what the marker should look like and queues it for the next sync if the map differs
+     *
+     * @param id Marker id
+     * @param summary What the marker should show, null to remove it
+     */
+    private synchronized void updateDesired(String id, MarkerSummary summary) {
+        if (summary == null)
+            desired.remove(id);
+        else
+            desired.put(id, summary);
+        if (Objects.equals(summary, applied.get(id)))
+            pending.remove(id);
+        else
+            pending.add(id);
+        startSyncTask();
+    }
+
+    private String getIconId() {
+        MarkerIcon icon = mi;
+        return (icon == null ? null : icon.getMarkerIconID());
+    }
+
+    private static String getMarkerId(Location loc) {
+        return (MarkerPrefix + signshopUtil.convertLocationToString(loc).replace(".", ""));
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -172,7 +268,7 @@ public class DynmapManager extends DynmapCommonAPIListener implements Listener {
             return;
         }
 
-        ManageMarkerForSeller(event.getShop(), true);
+        updateDesired(getMarkerId(event.getShop().getSignLocation()), null);
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -181,6 +277,53 @@ public class DynmapManager extends DynmapCommonAPIListener implements Listener {
             return;
         }
 
-        ManageMarkerForSeller(event.getSign().getLocation(), event.getPlayer().getName(), event.getPlayer().getWorld().getName(), false);
+        Location loc = event.getSign().getLocation();
+        updateDesired(getMarkerId(loc), new MarkerSummary(loc, event.getPlayer().getName(), event.getPlayer().getWorld().getName(), getIconId()));
+    }
+
+    /**
+     * What a marker shows, icon included, kept per shop so labels are not rebuilt and unchanged markers are not touched
+     */
+    private static final class MarkerSummary {
+        private final String label;
+        private final String world;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final String icon;
+
+        private MarkerSummary(Location loc, String owner, String world, String icon) {
+            this.label = (owner + "'s SignShop");
+            this.world = world;
+            this.x = loc.getX();
+            this.y = loc.getY();
+            this.z = loc.getZ();
+            this.icon = icon;
+        }
+
+        private MarkerSummary(Marker marker) {
+            this.label = marker.getLabel();
+            this.world = marker.getWorld();
+            this.x = marker.getX();
+            this.y = marker.getY();
+            this.z = marker.getZ();
+            this.icon = (marker.getMarkerIcon() == null ? null : marker.getMarkerIcon().getMarkerIconID());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof MarkerSummary))
+                return false;
+            MarkerSummary other = (MarkerSummary) o;
+            return (x == other.x && y == other.y && z == other.z && Objects.equals(label, other.label) && Objects.equals(world, other.world)
+                    && Objects.equals(icon, other.icon));
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(label, world, x, y, z, icon);
+        }
     }
 }
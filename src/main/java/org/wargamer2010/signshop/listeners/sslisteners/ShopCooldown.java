@@ -1,49 +1,39 @@
 
 package org.wargamer2010.signshop.listeners.sslisteners;
 
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.events.SSPreTransactionEvent;
+import org.wargamer2010.signshop.util.CooldownTracker;
 import org.wargamer2010.signshop.util.CooldownUtil;
 
-import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.Map;
-
 /**
  * Internal listener that enforces global shop usage cooldown per player to prevent spam.
+ * Last use times are kept in a {@link CooldownTracker} keyed by player UUID.
  */
 public class ShopCooldown implements Listener {
-    private static final Map<String, Long> lastusedByPlayer = new LinkedHashMap<>();
+    private static final CooldownTracker lastusedByPlayer = new CooldownTracker();
 
     @EventHandler(priority = EventPriority.HIGH)
     public void onSSPreTransactionEvent(SSPreTransactionEvent event) {
         if(event.isCancelled() || event.getAction() != Action.RIGHT_CLICK_BLOCK || !event.getRequirementsOK())
             return;
         int cooldown = SignShop.getInstance().getSignShopConfig().getShopCooldown();
-        long now = new Date().getTime();
-        String playername = event.getPlayer().getName();
-
         if(cooldown == 0)
             return;
-        if(!lastusedByPlayer.containsKey(playername)) {
-            lastusedByPlayer.put(playername, now);
+        Player player = event.getPlayer().getPlayer();
+        if(player == null)
             return;
-        }
 
-        long lastused = lastusedByPlayer.get(playername);
-        long left = (((lastused + cooldown) - now) / 1000);
-
-        if((now - lastused) < cooldown) {
-            CooldownUtil.setCooldownMessage(event, left);
+        long leftMillis = lastusedByPlayer.tryUse(player.getUniqueId(), System.currentTimeMillis(), cooldown);
+        if(leftMillis > 0) {
+            CooldownUtil.setCooldownMessage(event, leftMillis / 1000);
             event.getPlayer().sendMessage(SignShop.getInstance().getSignShopConfig().getError("shop_on_cooldown", event.getMessageParts()));
             event.setCancelled(true);
-            return;
         }
-
-        lastusedByPlayer.put(playername, now);
     }
 }
@@ -6,11 +6,15 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.inventory.InventoryHolder;
+import org.wargamer2010.signshop.Seller;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.events.SSCreatedEvent;
 import org.wargamer2010.signshop.events.SSTouchShopEvent;
+import org.wargamer2010.signshop.scheduling.TickGovernor;
 import org.wargamer2010.signshop.util.itemUtil;
 
+import java.util.List;
+
 /**
  * Internal listener that updates sign colors based on stock status when shops are created or touched.
  */
@@ -28,7 +32,8 @@ public class ShopUpdater implements Listener {
             return;
 
         if(event.getAction() == Action.LEFT_CLICK_BLOCK && event.getBlock().getState() instanceof InventoryHolder) {
-            itemUtil.updateStockStatusPerShop(event.getShop());
+            Seller shop = event.getShop();
+            TickGovernor.defer(List.of("shop", shop.getSignLocation()), TickGovernor.Priority.NORMAL, () -> itemUtil.updateStockStatusPerShop(shop));
         }
     }
 }
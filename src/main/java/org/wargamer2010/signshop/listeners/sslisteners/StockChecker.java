@@ -6,11 +6,16 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.Seller;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.events.SSPreTransactionEvent;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.scheduling.TickGovernor;
 import org.wargamer2010.signshop.util.itemUtil;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Updates shop sign colors based on stock availability.
@@ -34,14 +39,21 @@ public class StockChecker implements Listener {
         if(operation.contains("playerIsOp"))
             return;
         
-        ItemStack[] allStacks = itemUtil.getAllItemStacksForContainables(event.getShop().getContainables());
-        ItemStack[] filtered = itemUtil.filterStacks(allStacks, event.getShop().getItems());
+        // Summing up the chests is the expensive part, it can wait for a tick with time to spare.
+        // When it waits, the stock message arrives a few ticks after the confirm message instead of before it.
+        Seller shop = event.getShop();
+        SignShopPlayer player = event.getPlayer();
+        Map<String, Object> messageParts = new HashMap<>(event.getMessageParts());
+        TickGovernor.defer(List.of("stockcheck", shop.getSignLocation(), player.getName()), TickGovernor.Priority.HIGH, () -> {
+            ItemStack[] allStacks = itemUtil.getAllItemStacksForContainables(shop.getContainables());
+            ItemStack[] filtered = itemUtil.filterStacks(allStacks, shop.getItems());
 
-        if (filtered.length == 0) {
-            event.setMessagePart("!shopinventory", "nothing");
-        } else {
-            event.setMessagePart("!shopinventory", itemUtil.itemStackToString(filtered));
-        }
-        event.getPlayer().sendMessage(SignShop.getInstance().getSignShopConfig().getError("shop_contains", event.getMessageParts()));
+            if (filtered.length == 0) {
+                messageParts.put("!shopinventory", "nothing");
+            } else {
+                messageParts.put("!shopinventory", itemUtil.itemStackToString(filtered));
+            }
+            player.sendMessage(SignShop.getInstance().getSignShopConfig().getError("shop_contains", messageParts));
+        });
     }
 }
@@ -0,0 +1,315 @@
+package org.wargamer2010.signshop.money;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.configuration.PersistenceWriter;
+import org.wargamer2010.signshop.scheduling.SchedulerAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling counts of the items players bought from and sold to shops, used by {@link DynamicPriceModifier}.
+ *
+ * <p>The window set by {@code DynamicPricingWindowHours} is split into {@link #buckets} time buckets,
+ * kept as a ring in primitive arrays: one row of buckets per item type, indexed by material, and one
+ * per shop. A running total per row is kept next to the buckets, so recording a transaction and
+ * reading the demand for an item are a few array accesses. When a bucket expires, it is subtracted
+ * from the totals and cleared, which makes old transactions fall out of the window one bucket at a
+ * time.</p>
+ *
+ * <p>Buckets only expire on the async timer, so recording never pays for clearing them. The counts
+ * are saved to dynamicprices.yml through the {@link PersistenceWriter} every time the timer runs, and
+ * when the plugin is disabled. The counts are copied under the lock and written out after it is
+ * released, so transactions are not held up by the YAML.</p>
+ */
+public class DemandTracker {
+    private static final String filename = "dynamicprices.yml";
+    private static final int buckets = 24;
+    private static final int bought = 0;
+    private static final int sold = 1;
+    private static final Material[] materials = Material.values();
+
+    private static final Object lock = new Object();
+    private static int[][] itemBuckets = new int[2][materials.length * buckets];
+    private static long[][] itemTotals = new long[2][materials.length];
+    private static final Map<String, ShopCounts> shops = new HashMap<>();
+    private static long bucketMillis = 0;
+    private static long currentBucket = 0;
+    private static File file = null;
+    private static SchedulerAdapter.ScheduledTask task = null;
+
+    private DemandTracker() {
+
+    }
+
+    /**
+     * Loads the saved counts and starts expiring buckets
+     *
+     * @param dataFolder Folder to keep dynamicprices.yml in
+     * @param windowHours Hours a transaction counts towards the demand
+     */
+    public static void start(File dataFolder, int windowHours) {
+        synchronized (lock) {
+            file = new File(dataFolder, filename);
+            bucketMillis = Math.max(TimeUnit.HOURS.toMillis(Math.max(windowHours, 1)) / buckets, 1);
+            clear();
+            currentBucket = System.currentTimeMillis() / bucketMillis;
+            load();
+            advance(System.currentTimeMillis());
+        }
+        if (task == null) {
+            long periodTicks = Math.max(bucketMillis / 50, 20);
+            task = SignShop.getScheduler().runAsyncTimer(DemandTracker::expire, periodTicks, periodTicks);
+        }
+    }
+
+    /**
+     * Stops expiring buckets and saves the counts
+     */
+    public static void stop() {
+        if (task != null)
+            task.cancel();
+        task = null;
+        Snapshot snapshot;
+        synchronized (lock) {
+            snapshot = (file == null ? null : new Snapshot());
+            file = null;
+        }
+        if (snapshot != null)
+            snapshot.save();
+    }
+
+    public static boolean isRunning() {
+        return (task != null);
+    }
+
+    /**
+     * Counts a completed transaction
+     *
+     * @param items Items that changed hands
+     * @param playerBought True if the player bought the items, false if the player sold them
+     * @param shop Location of the shop sign
+     */
+    public static void record(ItemStack[] items, boolean playerBought, Location shop) {
+        int row = (playerBought ? bought : sold);
+        synchronized (lock) {
+            if (file == null)
+                return;
+            int slot = (int) (currentBucket % buckets);
+            long total = 0;
+            for (ItemStack item : items) {
+                if (item == null)
+                    continue;
+                int index = item.getType().ordinal();
+                itemBuckets[row][(index * buckets) + slot] += item.getAmount();
+                itemTotals[row][index] += item.getAmount();
+                total += item.getAmount();
+            }
+            ShopCounts counts = shops.computeIfAbsent(getShopKey(shop), k -> new ShopCounts());
+            counts.buckets[row][slot] += (int) total;
+            counts.totals[row] += total;
+        }
+    }
+
+    /**
+     * Demand of the items, between -1 (only sold in the window) and 1 (only bought in the window).
+     * The volume damps it, so it only nears -1 or 1 when far more than that many items were traded.
+     *
+     * @param items Items to weigh, by amount
+     * @param shop Location of the shop sign
+     * @param volume Items traded at which the demand is half of what it would be without damping
+     * @param shopWeight Part of the demand taken from the shop itself rather than from every shop, 0 to 1
+     * @return The demand
+     */
+    public static double getDemand(ItemStack[] items, Location shop, int volume, double shopWeight) {
+        double damping = Math.max(volume, 1);
+        synchronized (lock) {
+            if (file == null)
+                return 0;
+            double weighted = 0;
+            long amount = 0;
+            for (ItemStack item : items) {
+                if (item == null)
+                    continue;
+                int index = item.getType().ordinal();
+                long itemBought = itemTotals[bought][index];
+                long itemSold = itemTotals[sold][index];
+                weighted += item.getAmount() * ((itemBought - itemSold) / (itemBought + itemSold + damping));
+                amount += item.getAmount();
+            }
+            if (amount == 0)
+                return 0;
+            double itemDemand = (weighted / amount);
+
+            ShopCounts counts = shops.get(getShopKey(shop));
+            double shopDemand = (counts == null ? 0 : (counts.totals[bought] - counts.totals[sold]) / (counts.totals[bought] + counts.totals[sold] + damping));
+            return ((1 - shopWeight) * itemDemand) + (shopWeight * shopDemand);
+        }
+    }
+
+    private static void expire() {
+        Snapshot snapshot;
+        synchronized (lock) {
+            if (file == null)
+                return;
+            advance(System.currentTimeMillis());
+            snapshot = new Snapshot();
+        }
+        snapshot.save();
+    }
+
+    /**
+     * Clears every bucket that expired up to the given time
+     */
+    private static void advance(long now) {
+        long target = (now / bucketMillis);
+        if (target <= currentBucket)
+            return;
+        // After a long downtime everything expired, clearing each bucket once is enough
+        long steps = Math.min(target - currentBucket, buckets);
+        for (long step = 1; step <= steps; step++) {
+            int slot = (int) ((currentBucket + step) % buckets);
+            for (int row = 0; row < 2; row++) {
+                for (int index = 0; index < materials.length; index++) {
+                    int position = (index * buckets) + slot;
+                    itemTotals[row][index] -= itemBuckets[row][position];
+                    itemBuckets[row][position] = 0;
+                }
+            }
+            Iterator<ShopCounts> iterator = shops.values().iterator();
+            while (iterator.hasNext()) {
+                ShopCounts counts = iterator.next();
+                for (int row = 0; row < 2; row++) {
+                    counts.totals[row] -= counts.buckets[row][slot];
+                    counts.buckets[row][slot] = 0;
+                }
+                if (counts.totals[bought] == 0 && counts.totals[sold] == 0)
+                    iterator.remove();
+            }
+        }
+        currentBucket = target;
+    }
+
+    private static void clear() {
+        itemBuckets = new int[2][materials.length * buckets];
+        itemTotals = new long[2][materials.length];
+        shops.clear();
+    }
+
+    private static void load() {
+        if (!file.exists())
+            return;
+        FileConfiguration config = YamlConfiguration.loadConfiguration(file);
+        // Buckets of another size do not line up with ours, start over
+        if (config.getLong("BucketMillis") != bucketMillis)
+            return;
+        long savedBucket = config.getLong("CurrentBucket");
+        if (savedBucket > currentBucket)
+            return;
+        currentBucket = savedBucket;
+
+        ConfigurationSection items = config.getConfigurationSection("items");
+        if (items != null) {
+            for (String name : items.getKeys(false)) {
+                Material material = Material.getMaterial(name);
+                if (material == null)
+                    continue;
+                int index = material.ordinal();
+                for (int row = 0; row < 2; row++) {
+                    List<Integer> counts = items.getIntegerList(name + "." + getRowName(row));
+                    for (int slot = 0; slot < buckets && slot < counts.size(); slot++) {
+                        itemBuckets[row][(index * buckets) + slot] = counts.get(slot);
+                        itemTotals[row][index] += counts.get(slot);
+                    }
+                }
+            }
+        }
+
+        ConfigurationSection shopSection = config.getConfigurationSection("shops");
+        if (shopSection != null) {
+            for (String key : shopSection.getKeys(false)) {
+                ShopCounts counts = new ShopCounts();
+                for (int row = 0; row < 2; row++) {
+                    List<Integer> saved = shopSection.getIntegerList(key + "." + getRowName(row));
+                    for (int slot = 0; slot < buckets && slot < saved.size(); slot++) {
+                        counts.buckets[row][slot] = saved.get(slot);
+                        counts.totals[row] += saved.get(slot);
+                    }
+                }
+                shops.put(key.replace(',', '.'), counts);
+            }
+        }
+    }
+
+    private static String getRowName(int row) {
+        return (row == bought ? "bought" : "sold");
+    }
+
+    private static String getShopKey(Location shop) {
+        return shop.getWorld().getName() + "/" + shop.getBlockX() + "/" + shop.getBlockY() + "/" + shop.getBlockZ();
+    }
+
+    private static class ShopCounts {
+        private final int[][] buckets = new int[2][DemandTracker.buckets];
+        private final long[] totals = new long[2];
+    }
+
+    /**
+     * Copy of the counts, taken under the lock so they can be saved without it
+     */
+    private static class Snapshot {
+        private final File file = DemandTracker.file;
+        private final long bucketMillis = DemandTracker.bucketMillis;
+        private final long currentBucket = DemandTracker.currentBucket;
+        private final int[][] itemBuckets = new int[2][];
+        private final long[][] itemTotals = new long[2][];
+        private final Map<String, int[][]> shops = new HashMap<>();
+
+        private Snapshot() {
+            for (int row = 0; row < 2; row++) {
+                itemBuckets[row] = DemandTracker.itemBuckets[row].clone();
+                itemTotals[row] = DemandTracker.itemTotals[row].clone();
+            }
+            for (Map.Entry<String, ShopCounts> entry : DemandTracker.shops.entrySet())
+                shops.put(entry.getKey(), new int[][] { entry.getValue().buckets[bought].clone(), entry.getValue().buckets[sold].clone() });
+        }
+
+        private void save() {
+            FileConfiguration config = new YamlConfiguration();
+            config.set("BucketMillis", bucketMillis);
+            config.set("CurrentBucket", currentBucket);
+            for (int index = 0; index < materials.length; index++) {
+                if (itemTotals[bought][index] == 0 && itemTotals[sold][index] == 0)
+                    continue;
+                for (int row = 0; row < 2; row++) {
+                    List<Integer> counts = new ArrayList<>(buckets);
+                    for (int slot = 0; slot < buckets; slot++)
+                        counts.add(itemBuckets[row][(index * buckets) + slot]);
+                    config.set("items." + materials[index].name() + "." + getRowName(row), counts);
+                }
+            }
+            for (Map.Entry<String, int[][]> entry : shops.entrySet()) {
+                // Dots separate paths in YAML, world names may hold them
+                String key = entry.getKey().replace('.', ',');
+                for (int row = 0; row < 2; row++) {
+                    List<Integer> counts = new ArrayList<>(buckets);
+                    for (int slot = 0; slot < buckets; slot++)
+                        counts.add(entry.getValue()[row][slot]);
+                    config.set("shops." + key + "." + getRowName(row), counts);
+                }
+            }
+            PersistenceWriter.submit(file, config);
+        }
+    }
+}
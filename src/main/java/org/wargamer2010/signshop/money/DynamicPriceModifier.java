@@ -0,0 +1,45 @@
+package org.wargamer2010.signshop.money;
+
+import org.bukkit.block.Block;
+import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.configuration.SignShopConfig;
+import org.wargamer2010.signshop.data.ShopSearchIndex;
+import org.wargamer2010.signshop.events.SSMoneyEventType;
+import org.wargamer2010.signshop.operations.SignShopArguments;
+import org.wargamer2010.signshop.player.SignShopPlayer;
+
+/**
+ * Price modifier that raises the price of items players have recently been buying and lowers the
+ * price of items they have been selling.
+ *
+ * <p>Only applies to shops that buy or sell items, when DynamicPricing is enabled. The demand comes
+ * from {@link DemandTracker}, and moves the price by at most DynamicPricingMaxChangePercent. Runs before
+ * {@link RoundPriceModifier} so the adjusted price is rounded as well.</p>
+ *
+ * @see MoneyModifierManager
+ * @see IMoneyModifier
+ */
+public class DynamicPriceModifier implements IMoneyModifier {
+
+    @Override
+    public double applyModifier(SignShopPlayer player, double fPrice, String sOperation, SSMoneyEventType type) {
+        // Without the shop and its items there is no demand to go by
+        return fPrice;
+    }
+
+    @Override
+    public void applyModifier(SignShopArguments ssArgs, SSMoneyEventType type) {
+        if (!DemandTracker.isRunning())
+            return;
+        ItemStack[] items = ssArgs.getItems().get();
+        Block sign = ssArgs.getSign().get();
+        if (items == null || items.length == 0 || sign == null || ShopSearchIndex.getDirection(ssArgs.getOperation().get()) == null)
+            return;
+
+        SignShopConfig config = SignShop.getInstance().getSignShopConfig();
+        double demand = DemandTracker.getDemand(items, sign.getLocation(), config.getDynamicPricingVolume(), config.getDynamicPricingShopWeightPercent() / 100.0);
+        double multiplier = 1 + ((config.getDynamicPricingMaxChangePercent() / 100.0) * demand);
+        ssArgs.getPrice().set(ssArgs.getPrice().get() * multiplier);
+    }
+}
@@ -16,6 +16,7 @@ import java.util.List;
  *
  * @see IMoneyModifier
  * @see PlayerPriceModifier
+ * @see DynamicPriceModifier
  * @see RoundPriceModifier
  */
 public class MoneyModifierManager {
@@ -27,6 +28,7 @@ public class MoneyModifierManager {
 
     public static void init() {
         modifiers.add(new PlayerPriceModifier());
+        modifiers.add(new DynamicPriceModifier());
         modifiers.add(new RoundPriceModifier());
     }
 
@@ -47,9 +47,9 @@ public class giveShopItems implements SignShopOperation {
         if(!bStockOK)
             ssArgs.sendFailedRequirementsMessage("overstocked");
         if(activeCheck && !bStockOK)
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
         else if(activeCheck)
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
         ssArgs.setMessagePart("!items", ItemMessagePart.fromItems(ssArgs.getItems().get()));
         return bStockOK;
     }
@@ -61,9 +61,9 @@ public class giveShopItems implements SignShopOperation {
             return false;
         HashMap<Integer, ItemStack> isLeftOver = Holder.getInventory().addItem(ssArgs.getItems().get());
         if(!itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), false))
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
         else
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
         return (isLeftOver.isEmpty());
     }
 }
@@ -40,9 +40,9 @@ public class takeShopItems implements SignShopOperation {
         if(!bStockOK)
             ssArgs.sendFailedRequirementsMessage("out_of_stock");
         if(!bStockOK && activeCheck)
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
         else if(activeCheck)
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
 
         return bStockOK;
     }
@@ -54,9 +54,9 @@ public class takeShopItems implements SignShopOperation {
             return false;
         Holder.getInventory().removeItem(ssArgs.getItems().get());
         if(!itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), true))
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getOutOfStockColor());
         else
-            itemUtil.updateStockStatus(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
+            itemUtil.queueStockStatusUpdate(ssArgs.getSign().get(), SignShop.getInstance().getSignShopConfig().getInStockColor());
         ssArgs.setMessagePart("!items", ItemMessagePart.fromItems(ssArgs.getItems().get()));
         return true;
     }
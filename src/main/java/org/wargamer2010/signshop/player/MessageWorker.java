@@ -1,42 +1,32 @@
 package org.wargamer2010.signshop.player;
 
 import net.md_5.bungee.api.chat.BaseComponent;
-import org.jetbrains.annotations.NotNull;
+import org.bukkit.entity.Player;
 import org.wargamer2010.signshop.SignShop;
 
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
-
-public class MessageWorker implements Runnable {
-    private static boolean bWorking = false;
-    private static MessageWorker instance = null;
-    private static final DelayQueue<Message> messageQueue = new DelayQueue<>();
-    private static final Map<String, HashMap<String, Message>> mPlayerMessageMap = new HashMap<>();
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Throttles repeated chat messages per player.
+ *
+ * <p>Each player has a small bucket of recently sent messages keyed by their plain text. A message
+ * that is offered again within the MessageCooldown is counted instead of sent, and a single
+ * "repeated x times" line is delivered once the cooldown has passed. That delivery is scheduled
+ * on the player's own thread through the scheduler, so no worker thread touches Bukkit.</p>
+ *
+ * <p>Buckets are capped at {@link #maxMessagesPerPlayer} entries and dropped when the player
+ * quits, see {@link #evict(SignShopPlayer)}.</p>
+ */
+public class MessageWorker {
+    private static final int maxMessagesPerPlayer = 32;
+    private static final Map<PlayerIdentifier, Map<String, Message>> buckets = new ConcurrentHashMap<>();
 
     private MessageWorker() {
 
     }
 
-    public static void init() {
-        synchronized (MessageWorker.class) {
-            if (bWorking)
-                return;
-            if (instance == null)
-                instance = new MessageWorker();
-            SignShop.getScheduler().runAsync(instance);
-            bWorking = true;
-        }
-    }
-
-    public static boolean isWorking() {
-        return bWorking;
-    }
-
     public static void OfferMessage(String message, SignShopPlayer player) {
         OfferMessage(message, null, player);
     }
@@ -49,145 +39,126 @@ public class MessageWorker implements Runnable {
      * @param player The player to send the message to
      */
     public static void OfferMessage(String messageKey, BaseComponent component, SignShopPlayer player) {
-        String playername = player.getName();
+        if (player.GetIdentifier() == null)
+            return;
         long timenow = System.currentTimeMillis();
-        HashMap<String, Message> mMessageMap = mPlayerMessageMap.get(playername);
         int cooldown = (SignShop.getInstance().getSignShopConfig().getMessageCooldown() * 1000); // Convert to millis
-
-        if (mMessageMap == null) {
-            mMessageMap = new HashMap<>();
-            mPlayerMessageMap.put(playername, mMessageMap);
-        }
-        else if (mMessageMap.containsKey(messageKey) && (timenow - mMessageMap.get(messageKey).getLastSeen()) <= cooldown) {
-            // Check if message is the same and if less time than the cooldown has passed
-            // If so, increment count and push the message to the queue
-            mMessageMap.get(messageKey).incCount();
-            synchronized (MessageWorker.class) {
-                if (!messageQueue.contains(mMessageMap.get(messageKey)))
-                    messageQueue.offer(mMessageMap.get(messageKey));
+        Map<String, Message> bucket = buckets.computeIfAbsent(player.GetIdentifier(), k -> createBucket());
+        Message message;
+        boolean schedule = false;
+        boolean sendNow = true;
+
+        synchronized (bucket) {
+            message = bucket.get(messageKey);
+            if (message != null && (timenow - message.lastSeen) <= cooldown) {
+                // Same message within the cooldown, count it and make sure the summary gets sent
+                message.count++;
+                sendNow = false;
+                if (!message.scheduled) {
+                    message.scheduled = true;
+                    schedule = true;
+                }
+            } else if (message == null) {
+                message = new Message(messageKey, component, player.GetIdentifier(), timenow);
+                bucket.put(messageKey, message);
+            } else if (message.count > 0) {
+                // We've been repeating the message and this is the last in the row, so we should count it
+                // That way it's easier to read the message and just multiply the repeated_x_times with the numbers in the message
+                message.count++;
             }
-            return;
         }
 
-        if (!mMessageMap.containsKey(messageKey)) {
-            mMessageMap.put(messageKey, new Message(messageKey, component, player.GetIdentifier(), timenow));
-        }
-        else if (mMessageMap.get(messageKey).getCount() > 0) {
-            // We've been repeating the message and this is the last in the row, so we should count it
-            // That way it's easier to read the message and just multiply the repeated_x_times with the numbers in the message
-            mMessageMap.get(messageKey).incCount();
-        }
+        if (schedule)
+            scheduleRepeatedMessage(message, cooldown);
+        else if (sendNow)
+            SendRepeatedMessage(message, bucket);
+    }
 
-        SendRepeatedMessage(mMessageMap.get(messageKey));
+    /**
+     * Drops the message history of the given player. To be called when the player quits.
+     *
+     * @param player Player to evict
+     */
+    public static void evict(SignShopPlayer player) {
+        if (player != null && player.GetIdentifier() != null)
+            buckets.remove(player.GetIdentifier());
+    }
+
+    private static Map<String, Message> createBucket() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Message> eldest) {
+                return size() > maxMessagesPerPlayer;
+            }
+        };
+    }
+
+    private static void scheduleRepeatedMessage(Message message, int cooldown) {
+        Player player = message.getPlayer().getPlayer();
+        if (player == null)
+            return;
+        // Give it a second past the cooldown, as the old worker did
+        long delayMillis = Math.max(0, (message.lastSeen + cooldown + 1000) - System.currentTimeMillis());
+        SignShop.getScheduler().runAtEntityLater(player, () -> {
+            Map<String, Message> bucket = buckets.get(message.playerIdentifier);
+            if (bucket == null)
+                return; // Player quit in the meantime
+            synchronized (bucket) {
+                message.scheduled = false;
+                if (message.count == 0)
+                    return;
+            }
+            SendRepeatedMessage(message, bucket);
+        }, Math.max(1, delayMillis / 50));
     }
 
-    private static void SendRepeatedMessage(Message message) {
+    private static void SendRepeatedMessage(Message message, Map<String, Message> bucket) {
+        int count;
+        synchronized (bucket) {
+            count = message.count;
+            message.count = 0;
+            message.lastSeen = System.currentTimeMillis();
+        }
+
         Map<String, Object> pars = new LinkedHashMap<>();
-        pars.put("!times", Integer.toString(message.getCount()));
-        String appender = (message.getCount() > 0 ? (" " + SignShop.getInstance().getSignShopConfig().getError("repeated_x_times", pars)) : "");
+        pars.put("!times", Integer.toString(count));
+        String appender = (count > 0 ? (" " + SignShop.getInstance().getSignShopConfig().getError("repeated_x_times", pars)) : "");
 
         // Send component if available, otherwise send string
-        if (message.getComponent() != null) {
-            if (message.getCount() > 0) {
+        if (message.component != null) {
+            if (count > 0) {
                 // Append repeat count to component
-                net.md_5.bungee.api.chat.TextComponent fullMessage = new net.md_5.bungee.api.chat.TextComponent(message.getComponent());
+                net.md_5.bungee.api.chat.TextComponent fullMessage = new net.md_5.bungee.api.chat.TextComponent(message.component);
                 fullMessage.addExtra(appender);
                 message.getPlayer().sendNonDelayedMessage(fullMessage);
             } else {
-                message.getPlayer().sendNonDelayedMessage(message.getComponent());
+                message.getPlayer().sendNonDelayedMessage(message.component);
             }
         } else {
-            message.getPlayer().sendNonDelayedMessage(message.getMessage() + appender);
+            message.getPlayer().sendNonDelayedMessage(message.sMessage + appender);
         }
-
-        message.clrCount();
-        message.setLastSeen(System.currentTimeMillis());
     }
 
-    @Override
-    public void run() {
-        try {
-            Message taken;
-            while ((taken = messageQueue.take()) != null) {
-                if (taken.getCount() > 0)
-                    SendRepeatedMessage(taken);
-                synchronized (MessageWorker.class) {
-                    messageQueue.remove(taken);
-                }
-            }
-        } catch (InterruptedException ex) {
-            SignShop.log("MessageWorker was interrupted because: " + ex.getMessage(), Level.SEVERE);
-        }
-
-        bWorking = false;
-        init();
-    }
-
-    private static class Message implements Delayed {
+    /**
+     * A message in a player's bucket. Mutable state is guarded by the bucket monitor.
+     */
+    private static class Message {
         private final String sMessage;
         private final BaseComponent component; // Rich component with hover events (can be null)
         private final PlayerIdentifier playerIdentifier;
-        private int iCount = 0;
-        private long lLastSeen;
-        private final int delay = (SignShop.getInstance().getSignShopConfig().getMessageCooldown() * 1000 + 1000); // Convert to millis and give it a second
-
-        private Message(String pMessage, PlayerIdentifier playerIdentifier, long pTime) {
-            this(pMessage, null, playerIdentifier, pTime);
-        }
+        private int count = 0;
+        private long lastSeen;
+        private boolean scheduled = false;
 
-        private Message(String pMessage, BaseComponent pComponent, PlayerIdentifier playerIdentifier, long pTime) {
+        private Message(String pMessage, BaseComponent pComponent, PlayerIdentifier pPlayerIdentifier, long pTime) {
             sMessage = pMessage;
             component = pComponent;
-            this.playerIdentifier = playerIdentifier;
-            lLastSeen = pTime;
-        }
-
-        @Override
-        public long getDelay(@NotNull TimeUnit unit) {
-            return unit.convert(delay - (System.currentTimeMillis() - lLastSeen),
-                    TimeUnit.MILLISECONDS);
-        }
-
-        @Override
-        public int compareTo(@NotNull Delayed delayed) {
-            if (delayed == this) {
-                return 0;
-            }
-
-            long d = (getDelay(TimeUnit.MILLISECONDS) - delayed.getDelay(TimeUnit.MILLISECONDS));
-            return ((d == 0) ? 0 : ((d < 0) ? -1 : 1));
-        }
-
-        public String getMessage() {
-            return sMessage;
-        }
-
-        public BaseComponent getComponent() {
-            return component;
-        }
-
-        public SignShopPlayer getPlayer() {
-           return PlayerCache.getPlayer(playerIdentifier);
-        }
-
-        public synchronized int getCount() {
-            return iCount;
-        }
-
-        public synchronized void incCount() {
-            this.iCount++;
-        }
-
-        public synchronized void clrCount() {
-            this.iCount = 0;
-        }
-
-        public synchronized long getLastSeen() {
-            return lLastSeen;
+            playerIdentifier = pPlayerIdentifier;
+            lastSeen = pTime;
         }
 
-        public synchronized void setLastSeen(long lLastSeen) {
-            this.lLastSeen = lLastSeen;
+        private SignShopPlayer getPlayer() {
+            return PlayerCache.getPlayer(playerIdentifier);
         }
     }
 }
@@ -1,36 +1,65 @@
 package org.wargamer2010.signshop.player;
 
 import org.bukkit.entity.Player;
+import org.wargamer2010.signshop.util.BoundedCache;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Cache for {@link SignShopPlayer} and {@link PlayerIdentifier} instances.
  *
- * <p>Avoids repeated object creation by caching player wrappers. Entries are
- * automatically created on first access and removed when players disconnect.</p>
+ * <p>Avoids repeated object creation by caching player wrappers. Online players are held
+ * until they disconnect (see {@link #removeFromCache(Player)}). Offline players, such as
+ * shop owners looked up while loading sellers.yml, go into a size-bounded LRU cache so
+ * they don't stay in memory forever.</p>
+ *
+ * <p>All maps are concurrent so players can be looked up from any region thread.</p>
  */
 public class PlayerCache {
+    private static final int offlineCacheSize = 1024;
 
-    private static final Map<UUID, PlayerIdentifier> cachedIdentifiers = new HashMap<>();
-    private static final Map<PlayerIdentifier, SignShopPlayer> cachedPlayers = new HashMap<>();
+    private static final Map<UUID, PlayerIdentifier> cachedIdentifiers = new ConcurrentHashMap<>();
+    private static final Map<PlayerIdentifier, SignShopPlayer> onlinePlayers = new ConcurrentHashMap<>();
+    private static final BoundedCache<PlayerIdentifier, SignShopPlayer> offlinePlayers = new BoundedCache<>(offlineCacheSize);
 
     public static SignShopPlayer getPlayer(Player player) {
         PlayerIdentifier playerIdentifier = cachedIdentifiers.computeIfAbsent(player.getUniqueId(), v -> new PlayerIdentifier(player));
-        cachedPlayers.computeIfAbsent(playerIdentifier, v -> new SignShopPlayer(playerIdentifier));
-        return cachedPlayers.get(cachedIdentifiers.get(player.getUniqueId()));
+        SignShopPlayer online = onlinePlayers.get(playerIdentifier);
+        if (online != null)
+            return online;
+        // Keep the instance that may have been handed out while the player was offline
+        SignShopPlayer ssPlayer = offlinePlayers.remove(playerIdentifier);
+        return onlinePlayers.computeIfAbsent(playerIdentifier, v -> (ssPlayer != null ? ssPlayer : new SignShopPlayer(playerIdentifier)));
     }
 
     public static SignShopPlayer getPlayer(PlayerIdentifier playerIdentifier){
-        cachedPlayers.computeIfAbsent(playerIdentifier, v -> new SignShopPlayer(playerIdentifier));
-        return cachedPlayers.get(playerIdentifier);
+        if (playerIdentifier == null)
+            return new SignShopPlayer((PlayerIdentifier) null);
+        SignShopPlayer online = onlinePlayers.get(playerIdentifier);
+        if (online != null)
+            return online;
+
+        SignShopPlayer offline = offlinePlayers.get(playerIdentifier);
+        if (offline == null) {
+            offline = new SignShopPlayer(playerIdentifier);
+            offlinePlayers.put(playerIdentifier, offline);
+        }
+        return offline;
     }
 
     public static void removeFromCache(Player player) {
-        cachedPlayers.remove(cachedIdentifiers.get(player.getUniqueId()));
-        cachedIdentifiers.remove(player.getUniqueId());
+        PlayerIdentifier playerIdentifier = cachedIdentifiers.remove(player.getUniqueId());
+        if (playerIdentifier != null)
+            onlinePlayers.remove(playerIdentifier);
     }
 
+    public static int getOnlineCount() {
+        return onlinePlayers.size();
+    }
+
+    public static BoundedCache<PlayerIdentifier, SignShopPlayer> getOfflineCache() {
+        return offlinePlayers;
+    }
 }
@@ -4,6 +4,7 @@ package org.wargamer2010.signshop.player;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
+import org.wargamer2010.signshop.util.BoundedCache;
 
 import java.lang.reflect.Method;
 import java.util.UUID;
@@ -14,6 +15,10 @@ import java.util.UUID;
  * <p>Provides backwards compatibility for shops created before UUID support
  * was added to Minecraft. New shops use UUID; legacy shops may use player names.</p>
  *
+ * <p>Names of UUID based identifiers are resolved through a bounded UUID to name cache,
+ * which is refreshed when a player joins (see {@link #refreshName(Player)}), so
+ * {@link #getName()} doesn't hit {@code Bukkit.getOfflinePlayer} every time.</p>
+ *
  * <p>TODO: Migrate fully to UUID-only support.</p>
  *
  * @see SignShopPlayer
@@ -22,6 +27,8 @@ import java.util.UUID;
 public class PlayerIdentifier {
     private static boolean didMethodLookup = false;
     private static boolean uuidSupport = false;
+    private static final int nameCacheSize = 4096;
+    private static final BoundedCache<UUID, String> namesById = new BoundedCache<>(nameCacheSize);
     private UUID id = null;
     private String name = null;
 
@@ -76,13 +83,37 @@ public class PlayerIdentifier {
     }
 
     public final String getName() {
+        if(GetUUIDSupport() && id != null) {
+            String cached = namesById.get(id);
+            if(cached != null)
+                return cached;
+        }
+
         OfflinePlayer offplayer = getOfflinePlayer();
-        if(offplayer != null)
+        if(offplayer != null) {
+            if(GetUUIDSupport() && id != null)
+                namesById.put(id, offplayer.getName());
             return offplayer.getName();
+        }
 
         return name;
     }
 
+    /**
+     * Stores the current name of the given player in the name cache.
+     * To be called when the player joins, so renames are picked up.
+     *
+     * @param player Player that joined
+     */
+    public static void refreshName(Player player) {
+        if(player != null && GetUUIDSupport())
+            namesById.put(player.getUniqueId(), player.getName());
+    }
+
+    public static BoundedCache<UUID, String> getNameCache() {
+        return namesById;
+    }
+
     public static SignShopPlayer getPlayerFromString(String string) {
         if(string == null || string.isEmpty())
             return null;
@@ -150,6 +181,8 @@ public class PlayerIdentifier {
             return false;
         }
         final PlayerIdentifier other = (PlayerIdentifier) obj;
+        if(GetUUIDSupport() && id != null && other.id != null)
+            return id.equals(other.id);
         if(other.getOfflinePlayer() == null)
             return getOfflinePlayer() == null;
         if(getOfflinePlayer() == null)
@@ -1,4 +1,3 @@
-
 package org.wargamer2010.signshop.player;
 
 import org.bukkit.plugin.Plugin;
@@ -7,20 +6,38 @@ import org.wargamer2010.signshop.data.SSDatabase;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
 /**
  * Persistent metadata storage for SignShop players.
  *
  * <p>Stores player-specific data (e.g., tutorial dismissals, one-time shop usage)
  * in a SQLite database (player.db). Data persists across server restarts.</p>
+ *
+ * <p>Reads and writes are served from an in-memory map per player. The map is loaded
+ * asynchronously when the player joins (see {@link #preload}) and dropped when they quit
+ * (see {@link #evict}). Writes are queued, coalesced per key and flushed to player.db in
+ * a single transaction on an async task shortly after, so cooldown and oneTime shops never
+ * touch the disk on the tick thread. {@link #shutdown()} flushes whatever is left.</p>
+ *
+ * <p>Rows are unique per (Plugin, Playername, Metakey) and written with an UPSERT. Cooldown
+ * rows that have expired can be removed with {@link #purgeStaleCooldowns}.</p>
  */
 public class PlayerMetadata {
     private static final String filename = "player.db";
+    private static final String lookupIndex = "PlayerMeta_Lookup";
+    private static final String cooldownPrefix = "cooldown_";
+    private static final String upsertQuery = "INSERT INTO PlayerMeta(Plugin, Playername, Metakey, Metavalue) VALUES (?, ?, ?, ?)"
+            + " ON CONFLICT(Plugin, Playername, Metakey) DO UPDATE SET Metavalue = excluded.Metavalue";
+    private static final long flushDelayTicks = 20;
+    private static final Map<String, Map<String, String>> cache = new ConcurrentHashMap<>();
+    private static final LinkedHashMap<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private static final Object flushLock = new Object();
     private final SignShopPlayer ssPlayer;
     private final Plugin plugin;
 
@@ -34,9 +51,145 @@ public class PlayerMetadata {
         try {
             if(!metadb.tableExists("PlayerMeta"))
                 metadb.runStatement("CREATE TABLE PlayerMeta ( PlayerMetaID INTEGER, Playername TEXT NOT NULL, Plugin TEXT NOT NULL, Metakey TEXT NOT NULL, Metavalue TEXT NOT NULL, PRIMARY KEY(PlayerMetaID) )", null, false);
+            if(!metadb.indexExists(lookupIndex))
+                addLookupIndex(metadb);
+        } finally {
+            metadb.close();
+        }
+    }
+
+    /**
+     * Migrates older player.db files to the indexed schema. Duplicate keys, which the old
+     * SELECT-then-INSERT path could produce, are collapsed to the most recent row first
+     * because the unique index can't be created otherwise.
+     */
+    private static void addLookupIndex(SSDatabase metadb) {
+        SignShop.log("Adding lookup index to the PlayerMeta table, this may take a moment on large databases.", Level.INFO);
+        boolean committed = metadb.runInTransaction(() -> {
+            Object removed = metadb.runStatement("DELETE FROM PlayerMeta WHERE PlayerMetaID NOT IN (SELECT MAX(PlayerMetaID) FROM PlayerMeta GROUP BY Plugin, Playername, Metakey)", null, false);
+            if (removed instanceof Integer && (Integer) removed > 0)
+                SignShop.log("Removed " + removed + " duplicate row(s) from the PlayerMeta table.", Level.INFO);
+            Object created = metadb.runStatement("CREATE UNIQUE INDEX IF NOT EXISTS " + lookupIndex + " ON PlayerMeta(Plugin, Playername, Metakey)", null, false);
+            if (created == null)
+                throw new IllegalStateException("could not create index " + lookupIndex);
+        });
+        if (!committed)
+            SignShop.log("Could not add the lookup index to the PlayerMeta table, metadata lookups will be slow.", Level.WARNING);
+    }
+
+    /**
+     * Deletes cooldown rows that no longer block anything: the cooldown has passed, or the
+     * sign type they belong to doesn't have a cooldown block anymore. Queued writes are
+     * flushed first so recent uses are not lost. Runs on the calling thread.
+     *
+     * @param pPlugin Plugin owning the metadata
+     * @param cooldownsBySignType Cooldown in milliseconds per lowercase sign type (including aliases)
+     * @return Amount of rows deleted, or -1 if the compaction failed
+     */
+    public static int purgeStaleCooldowns(Plugin pPlugin, Map<String, Long> cooldownsBySignType) {
+        String pluginName = pPlugin.getName();
+        flush();
+
+        // PlayerMetaID -> the value that was found to be stale
+        Map<Integer, String> stale = new LinkedHashMap<>();
+        // Cache key and metakey -> the value that was found to be stale
+        Map<String, String> staleCacheValues = new HashMap<>();
+        long now = System.currentTimeMillis();
+        SSDatabase metadb = new SSDatabase(filename);
+        Map<Integer, Object> params = new LinkedHashMap<>();
+        params.put(1, pluginName);
+        params.put(2, cooldownPrefix);
+
+        try {
+            // substr instead of LIKE since '_' is a wildcard there. The rows are read under the connection lock,
+            // the async flush may run a transaction on the same connection at the same time
+            List<CooldownRow> rows = metadb.runQuery("SELECT PlayerMetaID, Playername, Metakey, Metavalue FROM PlayerMeta WHERE Plugin = ? AND substr(Metakey, 1, " + cooldownPrefix.length() + ") = ?", params,
+                    set -> new CooldownRow(set.getInt("PlayerMetaID"), set.getString("Playername"), set.getString("Metakey"), set.getString("Metavalue")));
+            if (rows == null) {
+                SignShop.log("Failed to compact the PlayerMeta table, the cooldown rows could not be read", Level.WARNING);
+                return -1;
+            }
+            for (CooldownRow row : rows) {
+                Long cooldown = cooldownsBySignType.get(row.metakey.substring(cooldownPrefix.length()).toLowerCase());
+                long lastUse;
+                try {
+                    lastUse = Long.parseLong(row.metavalue);
+                } catch (NumberFormatException ex) {
+                    lastUse = 0;
+                }
+                if (cooldown == null || (now - lastUse) > cooldown) {
+                    stale.put(row.id, row.metavalue);
+                    staleCacheValues.put(getCacheKey(pluginName, row.playerName) + '\0' + row.metakey, row.metavalue);
+                }
+            }
+
+            if (stale.isEmpty())
+                return 0;
+            boolean committed = metadb.runInTransaction(() -> {
+                Map<Integer, Object> idParam = new LinkedHashMap<>();
+                for (Map.Entry<Integer, String> row : stale.entrySet()) {
+                    idParam.put(1, row.getKey());
+                    idParam.put(2, row.getValue());
+                    // A use flushed since the select updated the row in place, keep it
+                    metadb.runStatement("DELETE FROM PlayerMeta WHERE PlayerMetaID = ? AND Metavalue = ?", idParam, false);
+                }
+            });
+            if (!committed)
+                return -1;
         } finally {
             metadb.close();
         }
+
+        for (Map.Entry<String, String> entry : staleCacheValues.entrySet()) {
+            String staleKey = entry.getKey();
+            int split = staleKey.indexOf('\0');
+            Map<String, String> values = cache.get(staleKey.substring(0, split));
+            // A use of the shop while purging wrote a new value, which has to stay
+            if (values != null && entry.getValue() != null)
+                values.remove(staleKey.substring(split + 1), entry.getValue());
+        }
+        return stale.size();
+    }
+
+    /**
+     * Loads the metadata of the given player into memory on an async task.
+     * To be called when the player joins.
+     *
+     * @param pPlugin Plugin owning the metadata
+     * @param player Player to load
+     */
+    public static void preload(Plugin pPlugin, SignShopPlayer player) {
+        if (player == null || player.GetIdentifier() == null)
+            return;
+        String pluginName = pPlugin.getName();
+        String playerId = player.GetIdentifier().toString();
+        SignShop.getScheduler().runAsync(() -> {
+            // Pending writes from a previous session have to hit the disk before we read
+            flush();
+            cache.putIfAbsent(getCacheKey(pluginName, playerId), loadFromDatabase(pluginName, playerId));
+        });
+    }
+
+    /**
+     * Drops the in-memory metadata of the given player. Queued writes are still flushed.
+     * To be called when the player quits.
+     *
+     * @param pPlugin Plugin owning the metadata
+     * @param player Player to evict
+     */
+    public static void evict(Plugin pPlugin, SignShopPlayer player) {
+        if (player == null || player.GetIdentifier() == null)
+            return;
+        cache.remove(getCacheKey(pPlugin.getName(), player.GetIdentifier().toString()));
+    }
+
+    /**
+     * Writes all queued metadata changes and clears the in-memory cache.
+     * To be called once when the plugin is disabled.
+     */
+    public static void shutdown() {
+        flush();
+        cache.clear();
     }
 
     public boolean hasMeta(String key) {
@@ -101,7 +254,7 @@ public class PlayerMetadata {
                 params.put(2, convert.newId);
                 params.put(3, convert.metakey);
                 params.put(4, convert.metavalue);
-                metadb.runStatement("INSERT INTO PlayerMeta(Plugin, Playername, Metakey, Metavalue) VALUES (?, ?, ?, ?)", params, false);
+                metadb.runStatement(upsertQuery, params, false);
             }
         } catch (SQLException ex) {
             SignShop.log("Failed to convert Player names to UUID in PlayerMeta table because: " + ex.getMessage(), Level.WARNING);
@@ -113,82 +266,198 @@ public class PlayerMetadata {
     }
 
     public String getMetaValue(String key) {
+        return getValues().get(key);
+    }
+
+    public boolean setMetavalue(String key, String value) {
+        if (value == null)
+            return false;
+        getValues().put(key, value);
+        queueWrite(new PendingWrite(plugin.getName(), getPlayerId(), key, value, false));
+        return true;
+    }
+
+    public boolean updateMeta(String key, String value) {
+        return setMetavalue(key, value);
+    }
+
+    public boolean removeMeta(String key) {
+        getValues().remove(key);
+        queueWrite(new PendingWrite(plugin.getName(), getPlayerId(), key, null, false));
+        return true;
+    }
+
+    public void removeMetakeyLike(String key) {
+        Pattern pattern = likeToPattern(key);
+        getValues().keySet().removeIf(metakey -> pattern.matcher(metakey).matches());
+        queueWrite(new PendingWrite(plugin.getName(), getPlayerId(), key, null, true));
+    }
+
+    private String getPlayerId() {
+        return ssPlayer.GetIdentifier().toString();
+    }
+
+    private Map<String, String> getValues() {
+        String pluginName = plugin.getName();
+        String playerId = getPlayerId();
+        String cacheKey = getCacheKey(pluginName, playerId);
+        Map<String, String> values = cache.get(cacheKey);
+        if (values != null)
+            return values;
+
+        // Not preloaded (e.g. right after a reload), fall back to a synchronous load
+        flush();
+        Map<String, String> loaded = loadFromDatabase(pluginName, playerId);
+        // Only online players are evicted on quit, so offline players are not kept in memory
+        if (ssPlayer.getPlayer() == null)
+            return loaded;
+        Map<String, String> cached = cache.putIfAbsent(cacheKey, loaded);
+        return (cached == null ? loaded : cached);
+    }
+
+    private static String getCacheKey(String pluginName, String playerId) {
+        return pluginName + ':' + playerId;
+    }
+
+    private static Map<String, String> loadFromDatabase(String pluginName, String playerId) {
+        Map<String, String> values = new ConcurrentHashMap<>();
         SSDatabase metadb = new SSDatabase(filename);
         Map<Integer, Object> params = new LinkedHashMap<>();
-        params.put(1, plugin.getName());
-        params.put(2, ssPlayer.GetIdentifier().toString());
-        params.put(3, key);
+        params.put(1, pluginName);
+        params.put(2, playerId);
 
         try {
-            ResultSet set = (ResultSet)metadb.runStatement("SELECT Metavalue FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, true);
-            if(set == null)
-                return null;
-            if(set.next())
-                return set.getString("Metavalue");
-            else
-                return null;
-        } catch(SQLException ex) {
-            return null;
+            // The rows are read under the connection lock, another player may be loaded at the same time
+            List<String[]> rows = metadb.runQuery("SELECT Metakey, Metavalue FROM PlayerMeta WHERE Plugin = ? AND Playername = ?", params,
+                    set -> new String[] { set.getString("Metakey"), set.getString("Metavalue") });
+            if (rows == null) {
+                SignShop.log("Failed to load metadata for player " + playerId, Level.WARNING);
+                return values;
+            }
+            for (String[] row : rows) {
+                if (row[0] != null && row[1] != null)
+                    values.put(row[0], row[1]);
+            }
         } finally {
             metadb.close();
         }
+        return values;
     }
 
-    public boolean setMetavalue(String key, String value) {
-        if(getMetaValue(key) != null) {
-            return updateMeta(key, value);
-        }
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, plugin.getName());
-            params.put(2, ssPlayer.GetIdentifier().toString());
-            params.put(3, key);
-            params.put(4, value);
-            return (metadb.runStatement("INSERT INTO PlayerMeta(Plugin, Playername, Metakey, Metavalue) VALUES (?, ?, ?, ?)", params, false) != null);
-        } finally {
-            metadb.close();
+    private static void queueWrite(PendingWrite write) {
+        synchronized (pendingWrites) {
+            // Move the key to the end so the order relative to prefix removals is kept
+            pendingWrites.remove(write.getId());
+            pendingWrites.put(write.getId(), write);
         }
+        if (flushScheduled.compareAndSet(false, true))
+            SignShop.getScheduler().runAsyncLater(() -> {
+                flushScheduled.set(false);
+                flush();
+            }, flushDelayTicks);
+    }
 
+    /**
+     * Writes all queued changes to player.db in a single transaction.
+     */
+    public static void flush() {
+        synchronized (flushLock) {
+            List<PendingWrite> writes;
+            synchronized (pendingWrites) {
+                if (pendingWrites.isEmpty())
+                    return;
+                writes = new ArrayList<>(pendingWrites.values());
+                pendingWrites.clear();
+            }
+
+            SSDatabase metadb = new SSDatabase(filename);
+            try {
+                boolean committed = metadb.runInTransaction(() -> {
+                    for (PendingWrite write : writes)
+                        write.apply(metadb);
+                });
+                if (!committed)
+                    SignShop.log("Could not write " + writes.size() + " metadata change(s) to " + filename, Level.WARNING);
+            } finally {
+                metadb.close();
+            }
+        }
     }
 
-    public boolean updateMeta(String key, String value) {
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, value);
-            params.put(2, plugin.getName());
-            params.put(3, ssPlayer.GetIdentifier().toString());
-            params.put(4, key);
-            return (metadb.runStatement("UPDATE PlayerMeta SET Metavalue = ? WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, false) != null);
-        } finally {
-            metadb.close();
+    /**
+     * Converts a SQL LIKE pattern to a case insensitive regex so it can be applied to the cache
+     */
+    private static Pattern likeToPattern(String like) {
+        StringBuilder regex = new StringBuilder(like.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
         }
+        if (literal.length() > 0)
+            regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
     }
 
-    public boolean removeMeta(String key) {
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
+    private static class PendingWrite {
+        private final String pluginName;
+        private final String playerId;
+        private final String metakey;
+        private final String metavalue;     // null means delete
+        private final boolean like;
+
+        private PendingWrite(String pPluginName, String pPlayerId, String pMetakey, String pMetavalue, boolean pLike) {
+            pluginName = pPluginName;
+            playerId = pPlayerId;
+            metakey = pMetakey;
+            metavalue = pMetavalue;
+            like = pLike;
+        }
+
+        private String getId() {
+            return pluginName + '\0' + playerId + '\0' + metakey + (like ? "\0like" : "");
+        }
+
+        private void apply(SSDatabase metadb) {
             Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, plugin.getName());
-            params.put(2, ssPlayer.GetIdentifier().toString());
-            params.put(3, key);
-            return (metadb.runStatement("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, false) != null);
-        } finally {
-            metadb.close();
+            if (like) {
+                params.put(1, pluginName);
+                params.put(2, playerId);
+                params.put(3, metakey);
+                metadb.runStatement("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey LIKE ?", params, false);
+            } else if (metavalue == null) {
+                params.put(1, pluginName);
+                params.put(2, playerId);
+                params.put(3, metakey);
+                metadb.runStatement("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, false);
+            } else {
+                params.put(1, pluginName);
+                params.put(2, playerId);
+                params.put(3, metakey);
+                params.put(4, metavalue);
+                metadb.runStatement(upsertQuery, params, false);
+            }
         }
     }
 
-    public void removeMetakeyLike(String key) {
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, plugin.getName());
-            params.put(2, ssPlayer.GetIdentifier().toString());
-            params.put(3, key);
-            metadb.runStatement("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey LIKE ?", params, false);
-        } finally {
-            metadb.close();
+    private static class CooldownRow {
+        public int id;
+        public String playerName;
+        public String metakey;
+        public String metavalue;
+
+        private CooldownRow(int pId, String pPlayername, String pMetakey, String pMetavalue) {
+            id = pId;
+            playerName = pPlayername;
+            metakey = pMetakey;
+            metavalue = pMetavalue;
         }
     }
 
@@ -10,6 +10,7 @@ import org.wargamer2010.signshop.Seller;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.Vault;
 import org.wargamer2010.signshop.data.Storage;
+import org.wargamer2010.signshop.util.PerfStats;
 import org.wargamer2010.signshop.util.itemUtil;
 
 import java.util.LinkedHashMap;
@@ -98,7 +99,6 @@ public class SignShopPlayer {
             return;
         }
 
-        MessageWorker.init();
         MessageWorker.OfferMessage(sMessage, this);
     }
 
@@ -131,7 +131,6 @@ public class SignShopPlayer {
             return;
         }
 
-        MessageWorker.init();
         MessageWorker.OfferMessage(plainText, component, this);
     }
 
@@ -283,8 +282,12 @@ public class SignShopPlayer {
             return true;
         if (playername.isEmpty())
             return false;
-        else
+        long start = PerfStats.start();
+        try {
             return !Vault.getEconomy().has(getOfflinePlayer(), amount);
+        } finally {
+            PerfStats.record("economy.has", start);
+        }
     }
 
     public boolean canNotHaveMoney(double amount) {
@@ -297,27 +300,32 @@ public class SignShopPlayer {
             return true;
         if (playername.isEmpty())
             return false;
-        EconomyResponse response;
-        double currentBalance = Vault.getEconomy().getBalance(getOfflinePlayer());
-
+        long start = PerfStats.start();
         try {
-            response = Vault.getEconomy().depositPlayer(getOfflinePlayer(), actual);
-        } catch (java.lang.RuntimeException ex) {
-            response = new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "");
-            SignShop.getInstance().debugMessage("canNotHaveMoney() caught exception from economy!");
-            if (SignShop.getInstance().getSignShopConfig().debugging()) {
-                ex.printStackTrace();
+            EconomyResponse response;
+            double currentBalance = Vault.getEconomy().getBalance(getOfflinePlayer());
+
+            try {
+                response = Vault.getEconomy().depositPlayer(getOfflinePlayer(), actual);
+            } catch (java.lang.RuntimeException ex) {
+                response = new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "");
+                SignShop.getInstance().debugMessage("canNotHaveMoney() caught exception from economy!");
+                if (SignShop.getInstance().getSignShopConfig().debugging()) {
+                    ex.printStackTrace();
+                }
             }
-        }
 
-        double newBalance = Vault.getEconomy().getBalance(getOfflinePlayer());
-        double subtract = (newBalance - currentBalance);
+            double newBalance = Vault.getEconomy().getBalance(getOfflinePlayer());
+            double subtract = (newBalance - currentBalance);
 
-        if (response.type == EconomyResponse.ResponseType.SUCCESS) {
-            response = Vault.getEconomy().withdrawPlayer(getOfflinePlayer(), subtract);
-            return response.type != EconomyResponse.ResponseType.SUCCESS;
-        } else {
-            return true;
+            if (response.type == EconomyResponse.ResponseType.SUCCESS) {
+                response = Vault.getEconomy().withdrawPlayer(getOfflinePlayer(), subtract);
+                return response.type != EconomyResponse.ResponseType.SUCCESS;
+            } else {
+                return true;
+            }
+        } finally {
+            PerfStats.record("economy.canHold", start);
         }
     }
 
@@ -326,22 +334,27 @@ public class SignShopPlayer {
             return false;
         if (playername.isEmpty() || isNothing(amount))
             return true;
-        EconomyResponse response;
+        long start = PerfStats.start();
         try {
-            if (amount > 0.0)
-                response = Vault.getEconomy().depositPlayer(getOfflinePlayer(), amount);
-            else if (amount < 0.0)
-                response = Vault.getEconomy().withdrawPlayer(getOfflinePlayer(), Math.abs(amount));
-            else
-                return true;
-        } catch (java.lang.RuntimeException ex) {
-            response = new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "");
-            SignShop.getInstance().debugMessage("mutateMoney() caught exception from economy!");
-            if (SignShop.getInstance().getSignShopConfig().debugging()) {
-                ex.printStackTrace();
+            EconomyResponse response;
+            try {
+                if (amount > 0.0)
+                    response = Vault.getEconomy().depositPlayer(getOfflinePlayer(), amount);
+                else if (amount < 0.0)
+                    response = Vault.getEconomy().withdrawPlayer(getOfflinePlayer(), Math.abs(amount));
+                else
+                    return true;
+            } catch (java.lang.RuntimeException ex) {
+                response = new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "");
+                SignShop.getInstance().debugMessage("mutateMoney() caught exception from economy!");
+                if (SignShop.getInstance().getSignShopConfig().debugging()) {
+                    ex.printStackTrace();
+                }
             }
+            return response.type == EconomyResponse.ResponseType.SUCCESS;
+        } finally {
+            PerfStats.record("economy.mutate", start);
         }
-        return response.type == EconomyResponse.ResponseType.SUCCESS;
     }
 
     public Map<Integer, ItemStack> givePlayerItems(ItemStack[] isItemsToTake) {
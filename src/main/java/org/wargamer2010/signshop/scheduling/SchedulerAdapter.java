@@ -8,6 +8,7 @@ import org.bukkit.entity.Entity;
 import org.bukkit.plugin.Plugin;
 
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -27,6 +28,7 @@ public class SchedulerAdapter {
     private Method executeMethod;
     private Method runDelayedAsyncMethod;
     private Method cancelTasksMethod;
+    private Method isOwnedByCurrentRegionMethod;
 
     public SchedulerAdapter(Plugin plugin) {
         this.plugin = plugin;
@@ -55,6 +57,7 @@ public class SchedulerAdapter {
             runDelayedAsyncMethod = asyncSchedulerClass.getMethod("runDelayed", Plugin.class, Runnable.class, long.class, TimeUnit.class);
             
             cancelTasksMethod = serverClass.getMethod("cancelTasks", Plugin.class);
+            isOwnedByCurrentRegionMethod = serverClass.getMethod("isOwnedByCurrentRegion", Location.class);
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize Folia reflection", e);
         }
@@ -126,6 +129,24 @@ public class SchedulerAdapter {
         runAtLocationLater(block.getLocation(), task, delayTicks);
     }
 
+    /**
+     * Checks whether the current thread may touch the given blocks.
+     * On Bukkit, always true since everything runs on the main thread.
+     */
+    public boolean isOwnedByCurrentRegion(List<Block> blocks) {
+        if (!isFolia)
+            return true;
+        try {
+            for (Block block : blocks) {
+                if (!(boolean) isOwnedByCurrentRegionMethod.invoke(Bukkit.getServer(), block.getLocation()))
+                    return false;
+            }
+            return true;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to check Folia region ownership", e);
+        }
+    }
+
     /**
      * Schedules a repeating task globally.
      * On Bukkit, runs synchronously on the main thread.
@@ -0,0 +1,154 @@
+package org.wargamer2010.signshop.scheduling;
+
+import org.bukkit.Bukkit;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.util.PerfStats;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps optional SignShop work, like recoloring signs, within a time budget per tick.
+ *
+ * <p>Deferrable work is handed to {@link #defer}. As long as SignShop has used less than
+ * {@code DeferredWorkBudgetMillis} of the current tick, including the transactions reported through
+ * {@link #charge}, it runs right away. Otherwise it is queued and run at the start of a later tick,
+ * highest priority first, until the budget of that tick is used. At least one task runs every tick,
+ * and only one while the server itself is lagging behind. Work queued under a key that is already
+ * waiting replaces the waiting work, so a sign touched ten times is recolored once. A budget of 0
+ * turns the governor off.</p>
+ *
+ * <p>On Folia, work is spread over region threads by the server already, and runs right away.</p>
+ */
+public class TickGovernor {
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private static final long lagThresholdNanos = TimeUnit.MILLISECONDS.toNanos(55);
+
+    @SuppressWarnings("unchecked")
+    private static final Map<Object, Runnable>[] queues = new Map[Priority.values().length];
+    private static SchedulerAdapter.ScheduledTask task = null;
+    private static volatile int queued = 0;
+    private static long spentThisTick = 0;
+    private static long lastTickStart = 0;
+    private static boolean serverLagging = false;
+
+    static {
+        for (int i = 0; i < queues.length; i++)
+            queues[i] = new LinkedHashMap<>();
+        PerfStats.registerGauge("governor.queued", () -> queued);
+    }
+
+    private TickGovernor() {
+
+    }
+
+    /**
+     * Starts draining the queue every tick. Does nothing on Folia.
+     */
+    public static void start() {
+        if (task != null || FoliaDetector.isFolia())
+            return;
+        task = SignShop.getScheduler().runTimer(TickGovernor::tick, 1, 1);
+    }
+
+    /**
+     * Stops draining and runs everything that is still queued
+     */
+    public static void stop() {
+        if (task != null)
+            task.cancel();
+        task = null;
+        Runnable work;
+        while ((work = poll()) != null)
+            runTimed(work);
+        lastTickStart = 0;
+    }
+
+    /**
+     * Counts time SignShop spent on the main thread outside the governor against the current tick
+     *
+     * @param nanos Time spent
+     */
+    public static void charge(long nanos) {
+        if (task != null && Bukkit.isPrimaryThread())
+            spentThisTick += nanos;
+    }
+
+    /**
+     * Runs the work now if the budget of this tick allows it, otherwise on a later tick
+     *
+     * @param key Identifies the work, queued work with an equal key is replaced
+     * @param priority Order in which queued work is run
+     * @param work Work to run on the main thread
+     */
+    public static void defer(Object key, Priority priority, Runnable work) {
+        long budget = getBudgetNanos();
+        if (task == null || budget <= 0 || !Bukkit.isPrimaryThread()) {
+            work.run();
+            return;
+        }
+        if (queued == 0 && !serverLagging && spentThisTick < budget) {
+            runTimed(work);
+            return;
+        }
+        Map<Object, Runnable> queue = queues[priority.ordinal()];
+        if (queue.put(key, work) == null)
+            queued++;
+        else
+            PerfStats.increment("governor.coalesced");
+        PerfStats.increment("governor.deferred");
+    }
+
+    private static void tick() {
+        long now = System.nanoTime();
+        serverLagging = (lastTickStart != 0 && (now - lastTickStart) > lagThresholdNanos);
+        lastTickStart = now;
+        spentThisTick = 0;
+        if (queued == 0)
+            return;
+
+        long budget = getBudgetNanos();
+        Runnable work;
+        do {
+            work = poll();
+            if (work == null)
+                break;
+            runTimed(work);
+        } while (budget <= 0 || (!serverLagging && spentThisTick < budget));
+    }
+
+    private static Runnable poll() {
+        for (Map<Object, Runnable> queue : queues) {
+            Iterator<Runnable> iterator = queue.values().iterator();
+            if (iterator.hasNext()) {
+                Runnable work = iterator.next();
+                iterator.remove();
+                queued--;
+                return work;
+            }
+        }
+        return null;
+    }
+
+    private static void runTimed(Runnable work) {
+        long start = PerfStats.start();
+        try {
+            work.run();
+        } catch (RuntimeException ex) {
+            SignShop.log("Deferred task failed: " + ex, Level.WARNING);
+        }
+        long spent = (System.nanoTime() - start);
+        spentThisTick += spent;
+        PerfStats.recordNanos("governor.run", spent);
+    }
+
+    private static long getBudgetNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(SignShop.getInstance().getSignShopConfig().getDeferredWorkBudgetMillis());
+    }
+}
@@ -38,10 +38,12 @@ public class ChangeOwner implements SignShopSpecialOp {
             return false;
         }
         PlayerIdentifier newOwner = null;
-        for(Map.Entry<PlayerIdentifier, Player> entry : clicks.mClicksPerPlayerId.entrySet()) {
-            if(entry.getValue() == player) {
-                newOwner = entry.getKey();
-                break;
+        synchronized (clicks.mClicksPerPlayerId) {
+            for(Map.Entry<PlayerIdentifier, Player> entry : clicks.mClicksPerPlayerId.entrySet()) {
+                if(entry.getValue() == player) {
+                    newOwner = entry.getKey();
+                    break;
+                }
             }
         }
         if(newOwner == null)
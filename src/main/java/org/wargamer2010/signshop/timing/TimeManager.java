@@ -14,8 +14,8 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.TimerTask;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -26,6 +26,15 @@ import java.util.logging.Level;
  * <p>Tracks operations with time limits (e.g., runTimedCommand) and fires
  * {@link SSExpiredEvent} when they expire. Persists state to timings.yml.</p>
  *
+ * <p>Expirables are kept in a priority queue ordered by their absolute deadline, so a check
+ * where nothing expires only peeks at the head of the queue. A hash index by descriptor
+ * (see {@link IExpirable#getEntry()}) serves lookups and removals. Removals are rare, so they
+ * take the entry out of the queue right away instead of leaving it there until its deadline.</p>
+ *
+ * <p>Deadlines are persisted as epoch milliseconds ({@code _expiresat}) so a restart doesn't
+ * shift them, and timing.yml is only rewritten when an expirable was added, removed or expired
+ * since the last save. Files written by older versions ({@code _timeleft}) are still read.</p>
+ *
  * @see IExpirable
  * @see SSExpiredEvent
  */
@@ -33,47 +42,44 @@ public class TimeManager extends TimerTask {
     private static final int interval = 1000; // in ms
     private static final int saveinterval = 10000;
     private int intervalcount = 0;
-    private final Map<IExpirable, Integer> timeByExpirable = new LinkedHashMap<>();
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>();
+    private final Map<Map<String, String>, Deadline> deadlineByDescriptor = new HashMap<>();
+    private long sequence = 0;
+    private boolean dirty = false;
+    private boolean changedSinceLoad = false;
     private final ReentrantLock timerLock = new ReentrantLock();
 
     private final FileSaveWorker fileSaveWorker;
     private File storageFile;
-    private YamlConfiguration storageConfiguration = null;
     private SchedulerAdapter.ScheduledTask scheduledTask = null;
 
     public TimeManager(File storage) {
         storageFile = storage;
         fileSaveWorker = new FileSaveWorker(storageFile);
-        fileSaveWorker.start();
 
         if (storage.exists()) {
             YamlConfiguration yml = new YamlConfiguration();
             try {
                 yml.load(storage);
-                storageConfiguration = yml;
                 HashMap<String, HashMap<String, String>> entries = fetchHasmapInHashmap(yml);
+                boolean hasLegacyEntries = false;
                 for (Map.Entry<String, HashMap<String, String>> entry : entries.entrySet()) {
                     Object ob = tryReflection(removeTrailingCounter(entry.getKey()));
                     if (ob instanceof IExpirable) {
                         IExpirable expirable = (IExpirable) ob;
-                        if (entry.getValue().containsKey("_timeleft")) {
-                            try {
-                                String left = entry.getValue().get("_timeleft");
-                                Integer iLeft = Integer.parseInt(left);
-                                if (expirable.parseEntry(entry.getValue())) {
-                                    timeByExpirable.put(expirable, iLeft);
-                                }
-                                else {
-                                    SignShop.log("Could not run parse for : " + entry.getKey(), Level.WARNING);
-
-                                }
-                            } catch (NumberFormatException ex) {
-                                SignShop.log("Invalid _timeleft value detected: " + entry.getValue().get("_timeleft"), Level.WARNING);
+                        Long expiresAt = getExpiresAt(entry.getValue());
+                        hasLegacyEntries |= !entry.getValue().containsKey("_expiresat");
+                        if (expiresAt != null) {
+                            if (expirable.parseEntry(stripTimeProperties(entry.getValue()))) {
+                                schedule(expirable, expiresAt);
+                            }
+                            else {
+                                SignShop.log("Could not run parse for : " + entry.getKey(), Level.WARNING);
 
                             }
                         }
                         else {
-                            SignShop.log("Could not find _timeleft property for : " + removeTrailingCounter(entry.getKey()), Level.WARNING);
+                            SignShop.log("Could not find a valid _expiresat or _timeleft property for : " + removeTrailingCounter(entry.getKey()), Level.WARNING);
 
                         }
                     }
@@ -82,6 +88,9 @@ public class TimeManager extends TimerTask {
 
                     }
                 }
+                // Loading doesn't change anything that needs to be written back, unless it has to be converted
+                dirty = hasLegacyEntries;
+                changedSinceLoad = hasLegacyEntries;
             } catch (IOException | InvalidConfigurationException ex) {
                 SignShop.log("Unable to load " + storage.getAbsolutePath() + " because: " + ex.getMessage(), Level.SEVERE);
                 return;
@@ -91,7 +100,6 @@ public class TimeManager extends TimerTask {
             try {
                 storage.createNewFile();
                 storageFile = storage;
-                storageConfiguration = new YamlConfiguration();
             } catch (IOException ex) {
                 SignShop.log("Unable to create " + storage.getAbsolutePath() + " because: " + ex.getMessage(), Level.SEVERE);
                 return;
@@ -109,8 +117,13 @@ public class TimeManager extends TimerTask {
     public void addExpirable(IExpirable pExpirable, Integer seconds) {
         if (pExpirable == null || seconds <= 0)
             return;
-        if (getExpirable(pExpirable.getEntry()) == null)
-            timeByExpirable.put(pExpirable, seconds);
+        timerLock.lock();
+        try {
+            if (getDeadline(pExpirable.getEntry()) == null)
+                schedule(pExpirable, System.currentTimeMillis() + (seconds * 1000L));
+        } finally {
+            timerLock.unlock();
+        }
     }
 
     /**
@@ -120,12 +133,18 @@ public class TimeManager extends TimerTask {
      * @return True if the expirable was removed succesfully
      */
     public boolean removeExpirable(Map<String, String> descriptor) {
-        IExpirable toremove = getExpirable(descriptor);
-        if (toremove != null) {
-            timeByExpirable.remove(toremove);
-            return true;
+        timerLock.lock();
+        try {
+            Deadline toremove = deadlineByDescriptor.remove(descriptor);
+            if (toremove != null) {
+                deadlines.remove(toremove);
+                markDirty();
+                return true;
+            }
+            return false;
+        } finally {
+            timerLock.unlock();
         }
-        return false;
     }
 
     /**
@@ -136,11 +155,13 @@ public class TimeManager extends TimerTask {
      * @return IExpirable instance or null
      */
     public IExpirable getExpirable(Map<String, String> descriptor) {
-        IExpirable getter = null;
-        for (IExpirable exp : timeByExpirable.keySet())
-            if (exp.getEntry().equals(descriptor))
-                getter = exp;
-        return getter;
+        timerLock.lock();
+        try {
+            Deadline deadline = getDeadline(descriptor);
+            return (deadline == null ? null : deadline.expirable);
+        } finally {
+            timerLock.unlock();
+        }
     }
 
     /**
@@ -151,10 +172,52 @@ public class TimeManager extends TimerTask {
      * @return Time left for expirable or -1
      */
     public int getTimeLeftForExpirable(Map<String, String> descriptor) {
-        IExpirable ex = getExpirable(descriptor);
-        if (ex == null)
-            return -1;
-        return timeByExpirable.get(ex);
+        timerLock.lock();
+        try {
+            Deadline deadline = getDeadline(descriptor);
+            if (deadline == null)
+                return -1;
+            return deadline.getSecondsLeft(System.currentTimeMillis());
+        } finally {
+            timerLock.unlock();
+        }
+    }
+
+    private Long getExpiresAt(Map<String, String> values) {
+        try {
+            if (values.containsKey("_expiresat"))
+                return Long.parseLong(values.get("_expiresat"));
+            if (values.containsKey("_timeleft"))
+                return System.currentTimeMillis() + (Integer.parseInt(values.get("_timeleft")) * 1000L);
+        } catch (NumberFormatException ex) {
+            SignShop.log("Invalid expiry value detected: " + values, Level.WARNING);
+        }
+        return null;
+    }
+
+    private Map<String, String> stripTimeProperties(Map<String, String> values) {
+        Map<String, String> entry = new HashMap<>(values);
+        entry.remove("_expiresat");
+        entry.remove("_timeleft");
+        return entry;
+    }
+
+    private void markDirty() {
+        dirty = true;
+        changedSinceLoad = true;
+    }
+
+    private Deadline getDeadline(Map<String, String> descriptor) {
+        return (descriptor == null ? null : deadlineByDescriptor.get(descriptor));
+    }
+
+    private void schedule(IExpirable expirable, long expiresAt) {
+        Deadline deadline = new Deadline(expirable, new HashMap<>(expirable.getEntry()), expiresAt, sequence++);
+        Deadline previous = deadlineByDescriptor.put(deadline.descriptor, deadline);
+        if (previous != null)
+            deadlines.remove(previous);
+        deadlines.add(deadline);
+        markDirty();
     }
 
     /**
@@ -165,6 +228,17 @@ public class TimeManager extends TimerTask {
             scheduledTask.cancel();
         }
         fileSaveWorker.stop();
+
+        // Anything queued has been written now, write the final state ourselves
+        timerLock.lock();
+        try {
+            if (changedSinceLoad && storageFile != null)
+                buildSaveConfiguration().save(storageFile);
+        } catch (IOException ex) {
+            SignShop.log("Unable to save " + storageFile.getAbsolutePath() + " because: " + ex.getMessage(), Level.WARNING);
+        } finally {
+            timerLock.unlock();
+        }
     }
 
     @Override
@@ -172,22 +246,19 @@ public class TimeManager extends TimerTask {
         timerLock.lock();
 
         try {
-            Map<IExpirable, Integer> update = new LinkedHashMap<>();
-            for (Map.Entry<IExpirable, Integer> entry : timeByExpirable.entrySet()) {
-                int left = (entry.getValue() - getSeconds());
-                if (left == 0) {
-                    SSExpiredEvent event = SSEventFactory.generateExpiredEvent(entry.getKey());
-                    Bukkit.getServer().getPluginManager().callEvent(event);
-                }
-                else {
-                    update.put(entry.getKey(), left);
-                }
+            long now = System.currentTimeMillis();
+            Deadline head;
+            while ((head = deadlines.peek()) != null && head.expiresAt <= now) {
+                deadlines.poll();
+                deadlineByDescriptor.remove(head.descriptor);
+                markDirty();
+                SSExpiredEvent event = SSEventFactory.generateExpiredEvent(head.expirable);
+                SignShop.scheduleEvent(event);
             }
-            timeByExpirable.clear();
-            timeByExpirable.putAll(update);
 
             if (intervalcount == saveinterval) {
-                save();
+                if (dirty)
+                    fileSaveWorker.queueSave(buildSaveConfiguration());
                 intervalcount = 0;
             }
             else {
@@ -204,18 +275,18 @@ public class TimeManager extends TimerTask {
         return name;
     }
 
-    private void save() {
+    private YamlConfiguration buildSaveConfiguration() {
         HashMap<String, HashMap<String, String>> saveStructure = new HashMap<>();
-        long counter = 0L;
-        for (Map.Entry<IExpirable, Integer> entry : timeByExpirable.entrySet()) {
-            HashMap<String, String> values = new HashMap<>();
-            values.put("_timeleft", entry.getValue().toString());
-            values.putAll(entry.getKey().getEntry());
-            saveStructure.put(entry.getKey().getName().replace(".", "=") + "~" + counter, values);
-            counter++;
+        for (Deadline deadline : deadlineByDescriptor.values()) {
+            HashMap<String, String> values = new HashMap<>(deadline.descriptor);
+            values.put("_expiresat", Long.toString(deadline.expiresAt));
+            saveStructure.put(deadline.expirable.getName().replace(".", "=") + "~" + deadline.sequence, values);
         }
-        this.storageConfiguration.set("expirables", saveStructure);
-        fileSaveWorker.queueSave(storageConfiguration);
+        // A fresh configuration, the queued one may still be waiting for the save worker
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("expirables", saveStructure);
+        dirty = false;
+        return config;
     }
 
     private Object tryReflection(String fullClassname) {
@@ -257,7 +328,30 @@ public class TimeManager extends TimerTask {
         return (TimeManager.interval / 50);
     }
 
-    private int getSeconds() {
-        return (TimeManager.interval / 1000);
+    /**
+     * An expirable with its absolute deadline, ordered by deadline and then by insertion order
+     */
+    private static class Deadline implements Comparable<Deadline> {
+        private final IExpirable expirable;
+        private final Map<String, String> descriptor;
+        private final long expiresAt;
+        private final long sequence;
+
+        private Deadline(IExpirable pExpirable, Map<String, String> pDescriptor, long pExpiresAt, long pSequence) {
+            expirable = pExpirable;
+            descriptor = pDescriptor;
+            expiresAt = pExpiresAt;
+            sequence = pSequence;
+        }
+
+        private int getSecondsLeft(long now) {
+            return (int) Math.max(1, (expiresAt - now + 999) / 1000);
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            int byTime = Long.compare(expiresAt, other.expiresAt);
+            return (byTime != 0 ? byTime : Long.compare(sequence, other.sequence));
+        }
     }
 }
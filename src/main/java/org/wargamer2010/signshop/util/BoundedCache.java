@@ -0,0 +1,112 @@
+package org.wargamer2010.signshop.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-capped, thread-safe LRU cache with hit/miss counters.
+ *
+ * <p>Backed by an access-ordered {@link LinkedHashMap} that evicts the least recently
+ * used entry once {@code maxSize} is exceeded. All map access is guarded by the cache
+ * monitor so it is safe to use from async tasks; the counters are lock-free.</p>
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class BoundedCache<K, V> {
+    private final int maxSize;
+    private final Map<K, V> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > BoundedCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the given key and records a hit or miss
+     *
+     * @param key Key to look up
+     * @return Cached value or null
+     */
+    public V get(K key) {
+        V value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        if (value == null)
+            misses.increment();
+        else
+            hits.increment();
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (key == null || value == null)
+            return;
+        entries.put(key, value);
+    }
+
+    public synchronized V remove(K key) {
+        return entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Hit rate between 0 and 1, or 0 if the cache was never queried
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return (total == 0 ? 0.0d : ((double) h / (double) total));
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    /**
+     * @return Short human readable summary, used by /signshop stats
+     */
+    public String getStats() {
+        return size() + "/" + maxSize + " entries, " + getHits() + " hits, " + getMisses() + " misses ("
+                + Math.round(getHitRate() * 100.0d) + "% hit rate), " + getEvictions() + " evictions";
+    }
+}
@@ -0,0 +1,70 @@
+package org.wargamer2010.signshop.util;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.UUID;
+
+/**
+ * Identifies a chunk by world and chunk coordinates without loading it.
+ */
+public final class ChunkKey {
+    private final UUID worldId;
+    private final int x;
+    private final int z;
+
+    public ChunkKey(UUID worldId, int x, int z) {
+        this.worldId = worldId;
+        this.x = x;
+        this.z = z;
+    }
+
+    public static ChunkKey of(Block block) {
+        return new ChunkKey(block.getWorld().getUID(), block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    public static ChunkKey of(Location location) {
+        return new ChunkKey(location.getWorld().getUID(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    public UUID getWorldId() {
+        return worldId;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * @param world World of this chunk
+     * @return Location of the lowest corner of the chunk, used to pick the region a task runs on
+     */
+    public Location toLocation(World world) {
+        return new Location(world, x << 4, 0, z << 4);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ChunkKey))
+            return false;
+        ChunkKey other = (ChunkKey) o;
+        return (x == other.x && z == other.z && worldId.equals(other.worldId));
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * (31 * worldId.hashCode() + x) + z);
+    }
+
+    @Override
+    public String toString() {
+        return (worldId + ":" + x + "," + z);
+    }
+}
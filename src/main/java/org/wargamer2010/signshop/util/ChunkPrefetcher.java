@@ -0,0 +1,216 @@
+package org.wargamer2010.signshop.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.scheduling.SchedulerAdapter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Loads the chunks of a shop's linked blocks ahead of a transaction without stalling the tick.
+ *
+ * <p>On servers that offer {@code World.getChunkAtAsync} (Paper and its forks) missing chunks are
+ * loaded asynchronously and then held by a plugin chunk ticket for {@link #ticketLeaseMillis},
+ * so a player using the shop a few times in a row does not trigger a load each time. Leases are
+ * renewed whenever the chunk is requested again and released by a periodic sweep.</p>
+ *
+ * <p>Plain Spigot has no async chunk API, so there the chunks are loaded synchronously right
+ * before they are needed, as before.</p>
+ *
+ * @see itemUtil#loadChunkByBlock(Block)
+ */
+public class ChunkPrefetcher {
+    private static final long ticketLeaseMillis = 60 * 1000L;
+    private static final long sweepPeriodTicks = 20 * 20L;
+    private static final Method getChunkAtAsync = findAsyncChunkMethod();
+    private static final Map<ChunkKey, Long> leases = new ConcurrentHashMap<>();
+    private static SchedulerAdapter.ScheduledTask sweepTask = null;
+
+    private ChunkPrefetcher() {
+
+    }
+
+    private static Method findAsyncChunkMethod() {
+        try {
+            return World.class.getMethod("getChunkAtAsync", int.class, int.class);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return True if chunks can be loaded without blocking the calling thread
+     */
+    public static boolean isAsyncLoadingSupported() {
+        return (getChunkAtAsync != null);
+    }
+
+    /**
+     * Makes sure the chunks of the given blocks can be used on this tick.
+     * Without async chunk loading the missing chunks are loaded synchronously.
+     *
+     * @param blocks Blocks that are about to be accessed
+     * @return False if some chunks are not loaded and should be fetched with {@link #whenLoaded} instead
+     */
+    public static boolean ensureLoaded(Collection<Block> blocks) {
+        boolean allLoaded = true;
+        for (Block block : blocks) {
+            if (block == null || isLoaded(block))
+                continue;
+            if (!isAsyncLoadingSupported())
+                itemUtil.loadChunkByBlock(block);
+            else
+                allLoaded = false;
+        }
+        return allLoaded;
+    }
+
+    /**
+     * Starts loading the chunks of all blocks linked to the given shop that are not loaded yet.
+     * Does nothing if chunks can only be loaded synchronously.
+     *
+     * @param seller Shop to prefetch
+     */
+    public static void prefetch(Seller seller) {
+        if (!isAsyncLoadingSupported())
+            return;
+        List<Block> blocks = new ArrayList<>(seller.getContainables());
+        blocks.addAll(seller.getActivatables());
+        for (Map.Entry<ChunkKey, World> chunk : getChunks(blocks).entrySet())
+            loadAsync(chunk.getKey(), chunk.getValue());
+    }
+
+    /**
+     * Loads the chunks of the given blocks and runs the task on the region owning runAt once they
+     * are all available. Runs the task right away if nothing needs to be loaded.
+     *
+     * @param blocks Blocks whose chunks are needed
+     * @param runAt Location that decides which region thread runs the task
+     * @param task Task to run
+     */
+    public static void whenLoaded(Collection<Block> blocks, Location runAt, Runnable task) {
+        Map<ChunkKey, World> chunks = getChunks(blocks);
+        if (chunks.isEmpty() || !isAsyncLoadingSupported()) {
+            ensureLoaded(blocks);
+            task.run();
+            return;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(chunks.size());
+        for (Map.Entry<ChunkKey, World> chunk : chunks.entrySet()) {
+            loadAsync(chunk.getKey(), chunk.getValue()).whenComplete((loaded, ex) -> {
+                if (remaining.decrementAndGet() == 0)
+                    SignShop.getScheduler().runAtLocation(runAt, task);
+            });
+        }
+    }
+
+    /**
+     * Forgets all leases. Plugin chunk tickets are dropped by the server when the plugin is disabled.
+     */
+    public static synchronized void releaseAll() {
+        leases.clear();
+        if (sweepTask != null) {
+            sweepTask.cancel();
+            sweepTask = null;
+        }
+    }
+
+    /**
+     * @param key Chunk to check
+     * @return True if the chunk is held loaded because it was prefetched
+     */
+    public static boolean isLeased(ChunkKey key) {
+        return leases.containsKey(key);
+    }
+
+    public static int getLeaseCount() {
+        return leases.size();
+    }
+
+    private static boolean isLoaded(Block block) {
+        return block.getWorld().isChunkLoaded(block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    /**
+     * @return The distinct chunks of the given blocks that are not loaded yet, leases of loaded ones are renewed
+     */
+    private static Map<ChunkKey, World> getChunks(Collection<Block> blocks) {
+        Map<ChunkKey, World> chunks = new LinkedHashMap<>();
+        long leaseUntil = System.currentTimeMillis() + ticketLeaseMillis;
+        for (Block block : blocks) {
+            if (block == null)
+                continue;
+            ChunkKey key = ChunkKey.of(block);
+            if (!isLoaded(block))
+                chunks.put(key, block.getWorld());
+            else
+                leases.computeIfPresent(key, (k, until) -> leaseUntil);
+        }
+        return chunks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<Chunk> loadAsync(ChunkKey key, World world) {
+        boolean newLease = (leases.put(key, System.currentTimeMillis() + ticketLeaseMillis) == null);
+        ensureSweeping();
+        CompletableFuture<Chunk> future;
+        long start = PerfStats.start();
+        try {
+            future = (CompletableFuture<Chunk>) getChunkAtAsync.invoke(world, key.getX(), key.getZ());
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            SignShop.log("Could not load chunk " + key + " asynchronously because: " + ex.getMessage(), Level.WARNING);
+            leases.remove(key);
+            return CompletableFuture.completedFuture(null);
+        }
+        future.thenRun(() -> PerfStats.record("chunk.load.async", start));
+        if (newLease) {
+            // The future completes on the thread owning the chunk, where adding a ticket is safe
+            future.thenAccept(chunk -> {
+                if (chunk != null && leases.containsKey(key))
+                    world.addPluginChunkTicket(key.getX(), key.getZ(), SignShop.getInstance());
+            });
+        }
+        return future;
+    }
+
+    private static synchronized void ensureSweeping() {
+        if (sweepTask == null)
+            sweepTask = SignShop.getScheduler().runTimer(ChunkPrefetcher::sweep, sweepPeriodTicks, sweepPeriodTicks);
+    }
+
+    private static void sweep() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<ChunkKey, Long> lease : leases.entrySet()) {
+            if (lease.getValue() > now || !leases.remove(lease.getKey(), lease.getValue()))
+                continue;
+            ChunkKey key = lease.getKey();
+            World world = Bukkit.getWorld(key.getWorldId());
+            if (world != null)
+                SignShop.getScheduler().runAtLocation(key.toLocation(world),
+                        () -> world.removePluginChunkTicket(key.getX(), key.getZ(), SignShop.getInstance()));
+        }
+        stopSweepingIfIdle();
+    }
+
+    private static synchronized void stopSweepingIfIdle() {
+        if (leases.isEmpty() && sweepTask != null) {
+            sweepTask.cancel();
+            sweepTask = null;
+        }
+    }
+}
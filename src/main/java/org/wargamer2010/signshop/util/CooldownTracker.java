@@ -0,0 +1,120 @@
+package org.wargamer2010.signshop.util;
+
+import java.util.UUID;
+
+/**
+ * Per-player cooldown timestamps keyed by UUID, stored in primitive arrays.
+ *
+ * <p>An open addressing table holds the two halves of each UUID and the time it last
+ * passed the cooldown, so there is no boxing and no entry object per player. Entries
+ * are never removed one by one: when the table fills up it is rebuilt without the
+ * entries whose cooldown has passed. The same sweep runs at most once per cooldown period
+ * (and at least a minute apart) when a new player is added, so memory stays proportional
+ * to the players that used a shop recently. Only grows if those still don't fit.</p>
+ *
+ * <p>All methods are synchronized, so the tracker can be used from any region thread.</p>
+ */
+public class CooldownTracker {
+    private static final int minCapacity = 64;
+    private static final float maxLoad = 0.5f;
+    private static final long minSweepInterval = 60 * 1000L;
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private long[] lastUsed;        // 0 marks an empty slot
+    private int size = 0;
+    private long lastSweep = 0;
+
+    public CooldownTracker() {
+        allocate(minCapacity);
+    }
+
+    /**
+     * Records a use by the given player unless they are still on cooldown
+     *
+     * @param id Player UUID
+     * @param now Current time in milliseconds
+     * @param cooldown Cooldown in milliseconds
+     * @return 0 if the use was recorded, otherwise the milliseconds left on the cooldown
+     */
+    public synchronized long tryUse(UUID id, long now, long cooldown) {
+        int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (lastUsed[slot] != 0) {
+            long elapsed = (now - lastUsed[slot]);
+            if (elapsed < cooldown)
+                return (cooldown - elapsed);
+            lastUsed[slot] = now;
+            return 0;
+        }
+
+        boolean sweepDue = (size > 0 && (now - lastSweep) >= Math.max(cooldown, minSweepInterval));
+        if (sweepDue || (size + 1) > (mostSigBits.length * maxLoad)) {
+            rebuild(now, cooldown);
+            slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        }
+        mostSigBits[slot] = id.getMostSignificantBits();
+        leastSigBits[slot] = id.getLeastSignificantBits();
+        lastUsed[slot] = now;
+        size++;
+        return 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        allocate(minCapacity);
+    }
+
+    private int findSlot(long msb, long lsb) {
+        int mask = (mostSigBits.length - 1);
+        int slot = mix(msb ^ lsb) & mask;
+        while (lastUsed[slot] != 0 && (mostSigBits[slot] != msb || leastSigBits[slot] != lsb))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Drops expired entries and resizes so the live ones stay below the load factor
+     */
+    private void rebuild(long now, long cooldown) {
+        lastSweep = now;
+        long[] oldMsb = mostSigBits;
+        long[] oldLsb = leastSigBits;
+        long[] oldUsed = lastUsed;
+
+        int live = 0;
+        for (long used : oldUsed)
+            if (used != 0 && (now - used) < cooldown)
+                live++;
+        int capacity = minCapacity;
+        while ((live + 1) > (capacity * maxLoad) / 2)
+            capacity <<= 1;
+
+        allocate(capacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i] == 0 || (now - oldUsed[i]) >= cooldown)
+                continue;
+            int slot = findSlot(oldMsb[i], oldLsb[i]);
+            mostSigBits[slot] = oldMsb[i];
+            leastSigBits[slot] = oldLsb[i];
+            lastUsed[slot] = oldUsed[i];
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        lastUsed = new long[capacity];
+        size = 0;
+    }
+
+    private static int mix(long hash) {
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        return (int) hash;
+    }
+}
@@ -0,0 +1,97 @@
+package org.wargamer2010.signshop.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the spirit of HdrHistogram.
+ *
+ * <p>Every power of two is split into {@link #subBuckets} linear buckets, so recorded values are
+ * kept with about 3% precision from a nanosecond up to {@link #maxTrackableNanos}. Larger values
+ * are counted in the last bucket; the exact maximum is tracked separately.</p>
+ */
+public class LatencyHistogram {
+    private static final int subBucketBits = 5;
+    private static final int subBuckets = (1 << subBucketBits);
+    private static final int maxExponent = 40;
+    private static final long maxTrackableNanos = (1L << (maxExponent + 1)) - 1; // Roughly 36 minutes
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(maxTrackableNanos) + 1);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(indexOf(Math.min(nanos, maxTrackableNanos)));
+        totalCount.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return The value at the percentile, in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil((percentile / 100.0) * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(valueOf(i), getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        totalCount.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < subBuckets)
+            return (int) value;
+        int exponent = (63 - Long.numberOfLeadingZeros(value));
+        int shift = (exponent - subBucketBits);
+        int mantissa = (int) (value >>> shift); // Between subBuckets and 2 * subBuckets - 1
+        return ((shift + 1) * subBuckets) + (mantissa - subBuckets);
+    }
+
+    /**
+     * @return The middle of the range of values counted in the given bucket
+     */
+    private static long valueOf(int index) {
+        if (index < subBuckets)
+            return index;
+        int shift = ((index / subBuckets) - 1);
+        long mantissa = (subBuckets + (index % subBuckets));
+        return ((mantissa << shift) + ((1L << shift) >> 1));
+    }
+}
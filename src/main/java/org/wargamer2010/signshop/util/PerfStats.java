@@ -0,0 +1,201 @@
+package org.wargamer2010.signshop.util;
+
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.player.PlayerCache;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Process-wide timers and counters for the transaction pipeline, shown by /signshop perf.
+ *
+ * <p>Timers are named by phase, e.g. {@code check.takePlayerItems} or {@code event.SSPreTransactionEvent},
+ * and keep a {@link LatencyHistogram} each. Counters are plain {@link LongAdder}s. Both are cheap enough
+ * to be left on; recording is a {@link System#nanoTime()} call and a few atomic adds.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ * long start = PerfStats.start();
+ * ...
+ * PerfStats.record("storage.save", start);
+ * </pre>
+ *
+ * <p>Names made of a prefix and an operation, event or sign type come from a {@link Names}, so the
+ * transaction pipeline does not build a new string for every record.</p>
+ */
+public class PerfStats {
+    private static final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static volatile long since = System.currentTimeMillis();
+
+    private PerfStats() {
+
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time passed since start under the given timer
+     *
+     * @param timer Timer name
+     * @param start Value returned by {@link #start()}
+     */
+    public static void record(String timer, long start) {
+        recordNanos(timer, System.nanoTime() - start);
+    }
+
+    public static void recordNanos(String timer, long nanos) {
+        timers.computeIfAbsent(timer, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    public static void increment(String counter) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param counter Counter name
+     * @return Times the counter was incremented since the last reset, 0 if it never was
+     */
+    public static long getCounter(String counter) {
+        LongAdder adder = counters.get(counter);
+        return (adder == null ? 0 : adder.sum());
+    }
+
+    /**
+     * Timer or counter names made of a fixed prefix and a class or key, each built once and then reused
+     */
+    public static final class Names {
+        private final String prefix;
+        private final Map<String, String> byKey = new ConcurrentHashMap<>();
+        private final ClassValue<String> byClass = new ClassValue<>() {
+            @Override
+            protected String computeValue(Class<?> type) {
+                return prefix + type.getSimpleName();
+            }
+        };
+
+        public Names(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return The prefix followed by the simple name of the class
+         */
+        public String of(Class<?> type) {
+            return byClass.get(type);
+        }
+
+        /**
+         * @return The prefix followed by the key
+         */
+        public String of(String key) {
+            return byKey.computeIfAbsent(key, k -> prefix + k);
+        }
+    }
+
+    /**
+     * Registers a value that is read when the report is made, such as the length of a queue
+     *
+     * @param gauge Gauge name
+     * @param value Supplies the current value, may be called from any thread
+     */
+    public static void registerGauge(String gauge, LongSupplier value) {
+        gauges.put(gauge, value);
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : timers.values())
+            histogram.reset();
+        for (LongAdder counter : counters.values())
+            counter.reset();
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Report lines, timers sorted by the total time they took, then counters, gauges and cache statistics
+     */
+    public static List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+        lines.add("Since " + new Date(since) + " (" + ((System.currentTimeMillis() - since) / 1000) + "s)");
+
+        List<Map.Entry<String, LatencyHistogram>> sorted = new ArrayList<>(timers.entrySet());
+        sorted.removeIf(entry -> entry.getValue().getCount() == 0);
+        sorted.sort((a, b) -> Long.compare(b.getValue().getTotalNanos(), a.getValue().getTotalNanos()));
+        if (!sorted.isEmpty())
+            lines.add("Timers (count, p50, p99, max, total):");
+        for (Map.Entry<String, LatencyHistogram> entry : sorted) {
+            LatencyHistogram histogram = entry.getValue();
+            lines.add("  " + entry.getKey() + ": " + histogram.getCount()
+                    + ", " + formatNanos(histogram.getValueAtPercentile(50))
+                    + ", " + formatNanos(histogram.getValueAtPercentile(99))
+                    + ", " + formatNanos(histogram.getMaxNanos())
+                    + ", " + formatNanos(histogram.getTotalNanos()));
+        }
+
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            long value = entry.getValue().sum();
+            if (value > 0)
+                counts.put(entry.getKey(), value);
+        }
+        if (!counts.isEmpty())
+            lines.add("Counters:");
+        for (Map.Entry<String, Long> entry : counts.entrySet())
+            lines.add("  " + entry.getKey() + ": " + entry.getValue());
+
+        if (!gauges.isEmpty())
+            lines.add("Gauges:");
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet())
+            lines.add("  " + entry.getKey() + ": " + entry.getValue().getAsLong());
+
+        lines.add("Caches:");
+        lines.add("  price: " + economyUtil.getPriceCache().getStats());
+        lines.add("  offline players: " + PlayerCache.getOfflineCache().getStats());
+        lines.add("  player names: " + PlayerIdentifier.getNameCache().getStats());
+        return lines;
+    }
+
+    /**
+     * Writes the report to a new file in the perf folder of the plugin
+     *
+     * @return The file written, or null if it could not be written
+     */
+    public static File dump() {
+        File folder = new File(SignShop.getInstance().getDataFolder(), "perf");
+        if (!folder.exists() && !folder.mkdirs()) {
+            SignShop.log("Could not create " + folder.getPath(), Level.WARNING);
+            return null;
+        }
+        File file = new File(folder, "perf-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".txt");
+        try {
+            Files.write(file.toPath(), getReport(), StandardCharsets.UTF_8);
+            return file;
+        } catch (IOException ex) {
+            SignShop.log("Could not write " + file.getPath() + " because: " + ex.getMessage(), Level.WARNING);
+            return null;
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1000000L)
+            return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+        return String.format(Locale.ROOT, "%.2fms", nanos / 1000000.0);
+    }
+}
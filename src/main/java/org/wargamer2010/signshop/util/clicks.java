@@ -5,9 +5,7 @@ import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.wargamer2010.signshop.player.PlayerIdentifier;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Tracks blocks and entities selected by players for shop creation.
@@ -16,22 +14,135 @@ import java.util.Map;
  * those blocks are registered here. When creating a shop, these registered
  * blocks become the shop's containables (chests) and activatables (levers).</p>
  *
+ * <p>Block selections are kept per player, in click order, with a reverse index from
+ * location to the player who selected it, so fetching or clearing a selection only
+ * touches that player's blocks. A selection that hasn't been added to for
+ * {@link #selectionTimeoutMillis} is dropped, as is everything a player selected
+ * when they quit (see {@link #removePlayer(Player)}). All block selection access is
+ * guarded by a single lock.</p>
+ *
+ * <p>The player and entity maps are synchronized maps. Iterating over them requires
+ * holding the map's monitor.</p>
+ *
  * @see signshopUtil#registerClickedMaterial
  */
 public class clicks {
-    public static Map<Location, Player> mClicksPerLocation = new LinkedHashMap<>();
-    public static Map<PlayerIdentifier, Player> mClicksPerPlayerId = new LinkedHashMap<>();
-    public static Map<Entity, Player> mClicksPerEntity = new LinkedHashMap<>();
+    private static final long selectionTimeoutMillis = 10 * 60 * 1000L;
+    private static final Map<UUID, Selection> selectionsByPlayer = new HashMap<>();
+    private static final Map<Location, UUID> selectorByLocation = new HashMap<>();
+
+    public static final Map<PlayerIdentifier, Player> mClicksPerPlayerId = Collections.synchronizedMap(new LinkedHashMap<>());
+    public static final Map<Entity, Player> mClicksPerEntity = Collections.synchronizedMap(new LinkedHashMap<>());
 
     private clicks() {
 
     }
 
-    public static void removePlayerFromClickmap(Player player) {
-        clicks.mClicksPerLocation.values().removeAll(Collections.singleton(player));
+    /**
+     * @param location Block location
+     * @return True if any player currently has the block selected
+     */
+    public static synchronized boolean isSelected(Location location) {
+        UUID selector = selectorByLocation.get(location);
+        if (selector == null)
+            return false;
+        return (getSelection(selector) != null); // Null if it expired
+    }
+
+    /**
+     * Adds the block to the player's selection, taking it away from whoever had it selected before
+     *
+     * @param location Block location
+     * @param player Player selecting the block
+     */
+    public static synchronized void select(Location location, Player player) {
+        // Expire first, that would otherwise clear the reverse index entry added below
+        Selection selection = getSelection(player.getUniqueId());
+        if (selection == null) {
+            selection = new Selection();
+            selectionsByPlayer.put(player.getUniqueId(), selection);
+        }
+
+        UUID previous = selectorByLocation.put(location, player.getUniqueId());
+        if (previous != null && !previous.equals(player.getUniqueId())) {
+            Selection previousSelection = selectionsByPlayer.get(previous);
+            if (previousSelection != null)
+                previousSelection.locations.remove(location);
+        }
+        selection.locations.add(location);
+        selection.lastChanged = System.currentTimeMillis();
+    }
+
+    /**
+     * Removes the block from the selection of whoever selected it
+     *
+     * @param location Block location
+     */
+    public static synchronized void deselect(Location location) {
+        UUID selector = selectorByLocation.remove(location);
+        if (selector == null)
+            return;
+        Selection selection = selectionsByPlayer.get(selector);
+        if (selection != null)
+            selection.locations.remove(location);
+    }
+
+    /**
+     * Returns the blocks selected by the given player, in the order they were clicked
+     *
+     * @param player Player to get the selection for
+     * @return A copy of the selection, empty if there is none
+     */
+    public static synchronized LinkedHashSet<Location> getSelectedLocations(Player player) {
+        Selection selection = getSelection(player.getUniqueId());
+        return (selection == null ? new LinkedHashSet<>() : new LinkedHashSet<>(selection.locations));
+    }
+
+    public static synchronized void removePlayerFromClickmap(Player player) {
+        removeSelection(player.getUniqueId());
     }
 
     public static void removePlayerFromEntityMap(Player player) {
-        clicks.mClicksPerEntity.values().removeAll(Collections.singleton(player));
+        synchronized (clicks.mClicksPerEntity) {
+            clicks.mClicksPerEntity.values().removeAll(Collections.singleton(player));
+        }
+    }
+
+    /**
+     * Drops everything the given player has selected. To be called when the player quits.
+     *
+     * @param player Player that quit
+     */
+    public static void removePlayer(Player player) {
+        removePlayerFromClickmap(player);
+        removePlayerFromEntityMap(player);
+        synchronized (clicks.mClicksPerPlayerId) {
+            clicks.mClicksPerPlayerId.values().removeAll(Collections.singleton(player));
+        }
+    }
+
+    /**
+     * Returns the selection of the given player, dropping it first if it timed out
+     */
+    private static Selection getSelection(UUID playerId) {
+        Selection selection = selectionsByPlayer.get(playerId);
+        if (selection != null && (System.currentTimeMillis() - selection.lastChanged) > selectionTimeoutMillis) {
+            removeSelection(playerId);
+            return null;
+        }
+        return selection;
+    }
+
+    private static void removeSelection(UUID playerId) {
+        Selection selection = selectionsByPlayer.remove(playerId);
+        if (selection == null)
+            return;
+        for (Location location : selection.locations)
+            selectorByLocation.remove(location, playerId);
+    }
+
+    private static class Selection {
+        private final LinkedHashSet<Location> locations = new LinkedHashSet<>();
+        private long lastChanged;
     }
 }
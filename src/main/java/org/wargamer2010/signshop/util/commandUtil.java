@@ -44,6 +44,19 @@ public class commandUtil {
             SignShop.log(message, Level.INFO);
     }
 
+    /**
+     * @param arg Command argument
+     * @return True if the argument is a positive whole number that fits in an int
+     */
+    public static boolean isNumber(String arg) {
+        if (arg.isEmpty() || arg.length() > 9)
+            return false;
+        for (char c : arg.toCharArray())
+            if (!Character.isDigit(c))
+                return false;
+        return true;
+    }
+
     public static Collection<String> getCollectionFromSingle(String single) {
         Collection<String> coll = new LinkedList<>();
         coll.add(single);
@@ -96,6 +109,10 @@ public class commandUtil {
         commands.add("sign SIGN~(Replace SIGN with a type of sign)");
         commands.add("ignore~(Toggles ignoring signshop messages)");
         commands.add("reload~(Reloads the signshop configs)");
+        commands.add("compact~(Purges expired cooldowns from player.db)");
+        commands.add("perf [reset|dump]~(Shows timings of shop transactions)");
+        commands.add("history [shop|owner|customer|item]~(Looks up past transactions)");
+        commands.add("find ITEM [buy|sell] [radius]~(Lists the closest shops trading ITEM)");
         commands.add("[about|version]~(Gives version information about signshop)");
         commands.add("tutorial [on|off]~(Toggles the help message on sign creation)");
         return formatAllCommands(commands, RootCommand);
@@ -5,21 +5,21 @@ import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.Vault;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Utility methods for economy operations and price formatting.
  *
- * <p>Provides money formatting, price caching, and currency display helpers
+ * <p>Provides money formatting, bounded price caching, and currency display helpers
  * that integrate with Vault's economy system.</p>
  *
  * @see Vault
  */
 public class economyUtil {
-    public static final Map<String, Double> priceCache = new HashMap<>();
+    private static final int PRICE_CACHE_SIZE = 4096;
+    private static final BoundedCache<String, Double> priceCache = new BoundedCache<>(PRICE_CACHE_SIZE);
+    private static volatile SignShopConfig.CommaDecimalSeparatorState priceCacheState = null;
     private static SignShopConfig signShopConfig;
 
     private economyUtil() {
@@ -28,6 +28,43 @@ public class economyUtil {
 
     public static void setSignShopConfig(SignShopConfig config) {
         signShopConfig = config;
+        invalidatePriceCache();
+    }
+
+    /**
+     * Returns the parsed price cache so its size and hit rate can be reported.
+     *
+     * @return The bounded price cache
+     */
+    public static BoundedCache<String, Double> getPriceCache() {
+        return priceCache;
+    }
+
+    /**
+     * Drops all cached prices. Must be called whenever the way prices are parsed changes,
+     * for example when AllowCommaDecimalSeparator is toggled.
+     */
+    public static void invalidatePriceCache() {
+        priceCache.clear();
+        priceCacheState = null;
+    }
+
+    private static Double getCachedPrice(String line) {
+        if (!signShopConfig.cachePrices())
+            return null;
+        SignShopConfig.CommaDecimalSeparatorState state = signShopConfig.allowCommaDecimalSeparator();
+        if (priceCacheState != state) {
+            // Cached values were parsed with a different separator setting
+            priceCache.clear();
+            priceCacheState = state;
+            return null;
+        }
+        return priceCache.get(line);
+    }
+
+    private static void cachePrice(String line, double price) {
+        if (signShopConfig.cachePrices())
+            priceCache.put(line, price);
     }
 
     private static String attachColor(String money) {
@@ -51,7 +88,7 @@ public class economyUtil {
     /**
      * Parses a price from a sign line, supporting both period and comma decimal separators.
      * Extracts numeric characters and handles international number formats.
-     * Results are cached for performance when cachePrices is enabled.
+     * Results are cached in a size-capped LRU cache when cachePrices is enabled.
      *
      * @param line The sign line containing the price (e.g., "$100" or "100,50")
      * @return Parsed price as double, or 0.0 if invalid
@@ -59,7 +96,8 @@ public class economyUtil {
     public static double parsePrice(String line) {
         if (line == null)
             return 0.0d;
-        if (signShopConfig.cachePrices() && priceCache.containsKey(line)) return priceCache.get(line);
+        Double cached = getCachedPrice(line);
+        if (cached != null) return cached;
         String priceline = ChatColor.stripColor(line);
         StringBuilder sPrice = new StringBuilder();
         Double fPrice;
@@ -68,7 +106,7 @@ public class economyUtil {
                 sPrice.append(priceline.charAt(i));
         if (signShopConfig.allowCommaDecimalSeparator().isPermitted()) {
             double price = parsePriceInternational(sPrice.toString());
-            if (signShopConfig.cachePrices()) priceCache.put(line, price);
+            cachePrice(line, price);
             return price;
         }
         try {
@@ -83,7 +121,7 @@ public class economyUtil {
         if(Double.isNaN(fPrice) || fPrice.isInfinite())
             fPrice = 0.0d;
 
-        if (signShopConfig.cachePrices()) priceCache.put(line, fPrice);
+        cachePrice(line, fPrice);
         return fPrice;
     }
 
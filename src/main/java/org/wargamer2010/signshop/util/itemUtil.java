@@ -31,6 +31,7 @@ import org.wargamer2010.signshop.operations.SignShopArguments;
 import org.wargamer2010.signshop.operations.SignShopArgumentsType;
 import org.wargamer2010.signshop.operations.SignShopOperationListItem;
 import org.wargamer2010.signshop.player.VirtualInventory;
+import org.wargamer2010.signshop.scheduling.TickGovernor;
 import org.wargamer2010.signshop.data.serialization.ItemSerializer;
 
 import java.util.*;
@@ -705,6 +706,13 @@ public class itemUtil {
         }
     }
 
+    /**
+     * Runs {@link #updateStockStatus} now or, when SignShop has used its budget for this tick, on a later tick
+     */
+    public static void queueStockStatusUpdate(Block bSign, ChatColor ccColor) {
+        TickGovernor.defer(List.of("stock", bSign.getLocation()), TickGovernor.Priority.NORMAL, () -> updateStockStatus(bSign, ccColor));
+    }
+
     /**
      * Updates stock status by checking all chests linked to a shop.
      * Called after every transaction to update sign color.
@@ -865,20 +873,29 @@ public class itemUtil {
      * @param radius Number of chunk-sized steps to load in each direction
      */
     public static void loadChunkByBlock(Block block, int radius) {
-        boolean OK = true;
-        int chunksize = 12;
+        for(Block inChunk : getBlocksInChunksAround(block, radius))
+            loadChunkByBlock(inChunk);
+    }
+
+    /**
+     * Returns one block in each chunk within the given radius (in chunks) of the block.
+     *
+     * @param block Center block
+     * @param radius Radius in chunks
+     * @return Blocks at the same height as the center block, one per chunk
+     */
+    public static List<Block> getBlocksInChunksAround(Block block, int radius) {
+        List<Block> blocks = new ArrayList<>();
+        int chunksize = 16;
         for(int x = -radius; x <= radius; x++) {
-            for(int y = -radius; y <= radius; y++) {
-                for(int z = -radius; z <= radius; z++) {
-                    OK = (!OK || loadChunkByBlock(
-                            block.getWorld().getBlockAt(
-                                    block.getX() + (x * chunksize),
-                                    block.getY() + (y * chunksize),
-                                    block.getZ() + (z * chunksize))));
-                }
+            for(int z = -radius; z <= radius; z++) {
+                blocks.add(block.getWorld().getBlockAt(
+                        block.getX() + (x * chunksize),
+                        block.getY(),
+                        block.getZ() + (z * chunksize)));
             }
         }
-
+        return blocks;
     }
 
     /**
@@ -890,10 +907,13 @@ public class itemUtil {
     public static boolean loadChunkByBlock(Block block) {
         if(block == null)
             return false;
-        Chunk chunk = block.getChunk();
-        if (!chunk.isLoaded())
-            return chunk.load();
-        return true; // Chunk already loaded
+        // Checking through the world does not load the chunk, Block.getChunk() would
+        if (block.getWorld().isChunkLoaded(block.getX() >> 4, block.getZ() >> 4))
+            return true;
+        long start = PerfStats.start();
+        boolean loaded = block.getChunk().load();
+        PerfStats.record("chunk.load.sync", start);
+        return loaded;
     }
 
     /**
@@ -20,14 +20,22 @@ public class lagSetter implements Runnable{
 
     @Override
     public void run(){
-        if(blockToChange.getType() == Material.getMaterial("LEVER") && blockToChange.getBlockData() instanceof Switch) {
-            // Best effort, load 2 chunks around the block in the hope it's enough
-            itemUtil.loadChunkByBlock(blockToChange, SignShop.getInstance().getSignShopConfig().getChunkLoadRadius());
+        if(!isLever())
+            return;
+        // Best effort, get the chunks around the block loaded in the hope it's enough for the redstone to update
+        int radius = SignShop.getInstance().getSignShopConfig().getChunkLoadRadius();
+        ChunkPrefetcher.whenLoaded(itemUtil.getBlocksInChunksAround(blockToChange, radius), blockToChange.getLocation(), () -> {
+            if(!isLever())
+                return;
             Switch switchLever = (Switch) blockToChange.getBlockData();
             switchLever.setPowered(false);
             blockToChange.setBlockData(switchLever);
             for(Seller seller : Storage.get().getShopsByBlock(blockToChange))
                 seller.reloadBlocks();
-        }
+        });
+    }
+
+    private boolean isLever() {
+        return (blockToChange.getType() == Material.getMaterial("LEVER") && blockToChange.getBlockData() instanceof Switch);
     }
 }
@@ -523,8 +523,8 @@ public class signshopUtil {
 
     public static Boolean registerClickedMaterial(Block bClicked, SignShopPlayer ssPlayer) {
         if(clickedSignShopMat(bClicked, ssPlayer)) {
-            if(clicks.mClicksPerLocation.containsKey(bClicked.getLocation())) {
-                clicks.mClicksPerLocation.remove(bClicked.getLocation());
+            if(clicks.isSelected(bClicked.getLocation())) {
+                clicks.deselect(bClicked.getLocation());
                 ssPlayer.sendMessage(signShopConfig.getError("removed_location", null));
             } else {
                 SSLinkEvent event = SSEventFactory.generateLinkEvent(bClicked, ssPlayer, null);
@@ -532,7 +532,7 @@ public class signshopUtil {
                 if(event.isCancelled())
                     return false;
                 else {
-                    clicks.mClicksPerLocation.put(bClicked.getLocation(), ssPlayer.getPlayer());
+                    clicks.select(bClicked.getLocation(), ssPlayer.getPlayer());
                     Map<String, Object> messageParts = new LinkedHashMap<>();
                     messageParts.put("!block", itemUtil.formatMaterialName(bClicked));
                     if(bClicked.getState() instanceof InventoryHolder) {
@@ -581,7 +581,7 @@ public class signshopUtil {
      */
     public static boolean getSignshopBlocksFromList(SignShopPlayer ssPlayer, List<Block> containables, List<Block> activatables, Block bClicked) {
         boolean multiWorld = false;
-        LinkedHashSet<Location> lClicked = getKeysByValue(clicks.mClicksPerLocation, ssPlayer.getPlayer());
+        LinkedHashSet<Location> lClicked = clicks.getSelectedLocations(ssPlayer.getPlayer());
         int chestCounter = 0;
         for (Location loc : lClicked) {
             Block bBlockat = loc.getBlock();
@@ -654,16 +654,6 @@ public class signshopUtil {
         return affectedSellers;
     }
 
-    public static <T, E> LinkedHashSet<T> getKeysByValue(Map<T, E> map, E value) {
-        LinkedHashSet<T> keys = new LinkedHashSet<>();
-        for (Map.Entry<T, E> entry : map.entrySet()) {
-            if (value.equals(entry.getValue())) {
-                keys.add(entry.getKey());
-            }
-        }
-        return keys;
-    }
-
     /**
      * Checks if two blocks are within the maximum allowed distance for shop linking.
      *